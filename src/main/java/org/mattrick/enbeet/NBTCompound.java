@@ -8,7 +8,12 @@ import java.util.*;
 public class NBTCompound {
 
     private String name;
-    private final Map<String, Object> data = new HashMap<>();
+    private final Map<String, Object> data;
+    // Set once the compounds, lists and arrays in data are shared with a copy-on-write clone or template. Each one is
+    // replaced by a copy the first time it is accessed, after which its key is owned. While shared, every access is
+    // synchronized, so a template can be cloned and read by several threads at once.
+    private volatile boolean shared;
+    private Set<String> owned;
 
     /**
      * Create a new NBTCompound.
@@ -21,7 +26,12 @@ public class NBTCompound {
      * Create a new NBTCompound with the given name in its root.
      */
     public NBTCompound(String name) {
+        this(name, new HashMap<>());
+    }
+
+    private NBTCompound(String name, Map<String, Object> data) {
         this.name = name;
+        this.data = data;
     }
 
     /**
@@ -29,7 +39,7 @@ public class NBTCompound {
      * @return An Optional, containing the name of this tag if it exists.
      */
     public Optional<String> getName() {
-        return Optional.of(name);
+        return Optional.ofNullable(name);
     }
 
     /**
@@ -57,18 +67,33 @@ public class NBTCompound {
             String part = path[i];
 
             // Get the existing value of the current part
-            Object currVal = curr.data.get(part);
+            Object currVal = curr.own(part);
             // Either get the existing NBTCompound or create a new one to replace it with...
             NBTCompound newVal =
                     currVal instanceof NBTCompound ? (NBTCompound) currVal : new NBTCompound();
-            // Put the new (or existing) NBTCompound in the current NBTCompound
-            curr.data.put(part, newVal);
+            // Put the new NBTCompound in the current NBTCompound
+            if (newVal != currVal) {
+                curr.put(part, newVal);
+            }
             // Finally, update the curr variable to track our new NBTCompound
             curr = newVal;
         }
 
         // For the last path part, put the passed value object
-        curr.data.put(path[path.length - 1], value);
+        curr.put(path[path.length - 1], value);
+    }
+
+    /**
+     * Remove the value at the given path, if it exists.
+     * @param path The path to remove.
+     * @throws IllegalArgumentException If the path is empty.
+     */
+    public void remove(String... path) {
+        if (path == null || path.length == 0) {
+            throw new IllegalArgumentException("path must not be blank");
+        }
+
+        getCompound(Arrays.copyOf(path, path.length - 1)).ifPresent(parent -> parent.delete(path[path.length - 1]));
     }
 
     /**
@@ -90,12 +115,12 @@ public class NBTCompound {
                 return Optional.empty();
             }
 
-            // Otherwise, we get that part from the internal data map of the object, check if it
-            // exists, and
-            if (!comp.data.containsKey(part)) {
+            // Otherwise, we get that part from the internal data map of the object, and check if it
+            // exists
+            curr = comp.own(part);
+            if (curr == null) {
                 return Optional.empty();
             }
-            curr = comp.data.get(part);
         }
 
         return Optional.of(curr);
@@ -270,13 +295,171 @@ public class NBTCompound {
     }
 
     /**
-     * Get the backing Map of the NBTCompound.
+     * Get the backing Map of the NBTCompound. On a copy-on-write clone or template, this copies every nested value it
+     * still shares, so prefer {@link #view()} to only read the values.
      * @return The backing Map.
      */
     public Map<String, Object> data() {
+        ownAll();
         return data;
     }
 
+    /**
+     * Get a read-only view of the backing Map of the NBTCompound, which never copies anything. Nested values may be
+     * shared with copy-on-write clones, so they must not be modified.
+     * @return The read-only view.
+     */
+    public Map<String, Object> view() {
+        return Collections.unmodifiableMap(data);
+    }
+
+    /**
+     * Create a deep copy of this NBTCompound. Nested compounds, lists and arrays are all copied.
+     * @return The copy.
+     */
+    public NBTCompound copy() {
+        Map<String, Object> copy = new HashMap<>(capacity(data.size()));
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            copy.put(entry.getKey(), copyValue(entry.getValue()));
+        }
+        return new NBTCompound(name, copy);
+    }
+
+    /**
+     * Create a copy-on-write clone of this NBTCompound, which is much cheaper than {@link #copy()} for large
+     * compounds. Only the top level is copied, and nested compounds, lists and arrays are shared between this
+     * NBTCompound and the clone.
+     *
+     * Each side copies a shared value the first time it accesses that value through get, set or data(), so neither side
+     * ever sees the other's changes. Arrays can be modified in place, so they are copied when they are first accessed,
+     * not when they are modified. Values obtained before cloning are still shared, and must not be modified afterwards.
+     *
+     * A template can be cloned and read by several threads at once. Other modifications are not thread-safe.
+     * @return The clone.
+     */
+    public NBTCompound copyOnWrite() {
+        NBTCompound clone;
+        synchronized (this) {
+            clone = new NBTCompound(name, new HashMap<>(data));
+            // Values this NBTCompound owned before are now shared with the clone as well
+            owned = new HashSet<>();
+            shared = true;
+        }
+        clone.owned = new HashSet<>();
+        clone.shared = true;
+        return clone;
+    }
+
+    /**
+     * Get the value of the given key, first replacing it with a copy if it is shared with a copy-on-write clone or
+     * template. Nested compounds and lists are replaced by their own copy-on-write clones, so this only copies one
+     * value, one level deep.
+     */
+    private Object own(String key) {
+        if (!shared) {
+            return data.get(key);
+        }
+
+        synchronized (this) {
+            Object value = data.get(key);
+            if (shared && value != null && owned.add(key)) {
+                Object copy = copyOnWriteValue(value);
+                if (copy != value) {
+                    data.put(key, copy);
+                }
+                value = copy;
+            }
+            return value;
+        }
+    }
+
+    private void put(String key, Object value) {
+        if (!shared) {
+            data.put(key, value);
+            return;
+        }
+
+        synchronized (this) {
+            data.put(key, value);
+            if (shared) {
+                owned.add(key);
+            }
+        }
+    }
+
+    private void delete(String key) {
+        if (!shared) {
+            data.remove(key);
+            return;
+        }
+
+        synchronized (this) {
+            data.remove(key);
+        }
+    }
+
+    /**
+     * Own every value that is still shared with a copy-on-write clone or template.
+     */
+    private void ownAll() {
+        if (!shared) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!shared) {
+                return;
+            }
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                if (!owned.contains(entry.getKey())) {
+                    entry.setValue(copyOnWriteValue(entry.getValue()));
+                }
+            }
+            owned = null;
+            shared = false;
+        }
+    }
+
+    static Object copyValue(Object value) {
+        if (value instanceof NBTCompound comp) {
+            return comp.copy();
+        }
+        if (value instanceof NBTList list) {
+            return list.copy();
+        }
+        return copyArray(value);
+    }
+
+    static Object copyOnWriteValue(Object value) {
+        if (value instanceof NBTCompound comp) {
+            return comp.copyOnWrite();
+        }
+        if (value instanceof NBTList list) {
+            return list.copyOnWrite();
+        }
+        return copyArray(value);
+    }
+
+    private static Object copyArray(Object value) {
+        if (value instanceof byte[] array) {
+            return array.clone();
+        }
+        if (value instanceof int[] array) {
+            return array.clone();
+        }
+        if (value instanceof long[] array) {
+            return array.clone();
+        }
+
+        // Everything else is immutable
+        return value;
+    }
+
+    private static int capacity(int size) {
+        // Enough capacity for the HashMap to never resize while it is filled
+        return (int) (size / 0.75f) + 1;
+    }
+
     @Override
     public String toString() {
         // TODO Output valid SNBT
@@ -18,6 +18,16 @@ public class NBTList extends ArrayList<Object> {
         this.type = type;
     }
 
+    /**
+     * Create a new NBTList of the given type, with room for the given number of elements.
+     * @param type The type of the NBTList.
+     * @param initialCapacity The number of elements to make room for.
+     */
+    public NBTList(TagType type, int initialCapacity) {
+        super(initialCapacity);
+        this.type = type;
+    }
+
     /**
      * Get the type of this NBTList.
      * @return The type of this NBTList.
@@ -165,4 +175,30 @@ public class NBTList extends ArrayList<Object> {
         return get(long[].class, index);
     }
 
+    /**
+     * Create a deep copy of this NBTList. Nested compounds, lists and arrays are all copied.
+     * @return The copy.
+     */
+    public NBTList copy() {
+        NBTList copy = new NBTList(type, size());
+        for (Object value : this) {
+            copy.add(NBTCompound.copyValue(value));
+        }
+        return copy;
+    }
+
+    /**
+     * Create a copy-on-write clone of this NBTList. The list itself is copied, and nested compounds and lists are
+     * replaced by their own copy-on-write clones (see {@link NBTCompound#copyOnWrite()}). Arrays are copied, since
+     * modifications to them cannot be detected.
+     * @return The clone.
+     */
+    public NBTList copyOnWrite() {
+        NBTList copy = new NBTList(type, size());
+        for (Object value : this) {
+            copy.add(NBTCompound.copyOnWriteValue(value));
+        }
+        return copy;
+    }
+
 }
@@ -76,7 +76,7 @@ public enum TagType {
             return short.class;
         }
         if (type == Integer.class) {
-            return Integer.class;
+            return int.class;
         }
         if (type == Long.class) {
             return long.class;
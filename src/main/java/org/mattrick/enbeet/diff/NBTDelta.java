@@ -0,0 +1,319 @@
+package org.mattrick.enbeet.diff;
+
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.NBTList;
+import org.mattrick.enbeet.TagType;
+import org.mattrick.enbeet.io.NBTException;
+import org.mattrick.enbeet.io.NBTLimits;
+import org.mattrick.enbeet.io.NBTReader;
+import org.mattrick.enbeet.io.NBTWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A structural delta between two NBTCompounds, as computed by {@link NBTDiff}. Applying the delta to the first
+ * compound turns it into the second.
+ *
+ * A delta is encoded as an uncompressed NBTCompound containing a list of changes, so it can be read and written with
+ * the same limits and instrumentation as any other NBT.
+ */
+public class NBTDelta {
+
+    /**
+     * The kind of a single change.
+     */
+    public enum Operation {
+        /**
+         * A value was added at a path that did not exist before.
+         */
+        ADD,
+        /**
+         * The value at a path was replaced.
+         */
+        CHANGE,
+        /**
+         * The value at a path was removed.
+         */
+        REMOVE,
+        /**
+         * A range of elements of an int[] or long[] was replaced, and the array was resized to the given length.
+         */
+        RANGE
+    }
+
+    /**
+     * A single change at a path.
+     */
+    public static class Change {
+
+        private final Operation operation;
+        private final String[] path;
+        private final Object value;
+        private final int offset;
+        private final int length;
+
+        Change(Operation operation, String[] path, Object value, int offset, int length) {
+            this.operation = operation;
+            this.path = path;
+            this.value = value;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Get the kind of this change.
+         * @return The operation.
+         */
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Get the path of the changed value, in the same form as {@link NBTCompound#get(String...)}.
+         * @return The path.
+         */
+        public String[] getPath() {
+            return path.clone();
+        }
+
+        /**
+         * Get the new value. For a RANGE change, this is the replacement elements starting at the offset.
+         * @return An Optional containing the new value, which is empty for a REMOVE change.
+         */
+        public Optional<Object> getValue() {
+            return Optional.ofNullable(value);
+        }
+
+        /**
+         * Get the index of the first replaced element of a RANGE change.
+         * @return The offset.
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get the new total length of the array of a RANGE change.
+         * @return The new array length.
+         */
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "Change{" + operation + " " + String.join("/", path) +
+                    (operation == Operation.RANGE ? " [" + offset + "] length=" + length : "") + "}";
+        }
+
+    }
+
+    private final List<Change> changes;
+
+    NBTDelta(List<Change> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * Get the changes in this delta, in the order they are applied.
+     * @return An unmodifiable list of the changes.
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Is this delta empty, meaning both compounds were equal.
+     * @return true if there are no changes.
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Apply this delta to the given NBTCompound, in place. Values in this delta are not copied, so they will be shared
+     * with the target.
+     * @param target The NBTCompound to patch.
+     * @throws IllegalArgumentException if a RANGE change targets a value that is not an array of the right type.
+     */
+    public void apply(NBTCompound target) {
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            switch (change.operation) {
+                case ADD, CHANGE -> target.set(change.value, change.path);
+                case REMOVE -> remove(target, change.path);
+                case RANGE -> {
+                    // Consecutive ranges of the same array are spliced into a single copy of it
+                    int end = i + 1;
+                    while (end < changes.size() && changes.get(end).operation == Operation.RANGE
+                            && Arrays.equals(changes.get(end).path, change.path)) {
+                        end++;
+                    }
+                    applyRanges(target, changes.subList(i, end));
+                    i = end - 1;
+                }
+            }
+        }
+    }
+
+    private static void remove(NBTCompound target, String[] path) {
+        target.remove(path);
+    }
+
+    private static void applyRanges(NBTCompound target, List<Change> ranges) {
+        String[] path = ranges.get(0).path;
+        Object array = target.get(path).orElse(null);
+        int length = -1;
+
+        for (Change change : ranges) {
+            int count;
+            if (change.value instanceof int[] values && array instanceof int[] ints) {
+                count = values.length;
+                if (length != change.length) {
+                    array = Arrays.copyOf(ints, change.length);
+                }
+            } else if (change.value instanceof long[] values && array instanceof long[] longs) {
+                count = values.length;
+                if (length != change.length) {
+                    array = Arrays.copyOf(longs, change.length);
+                }
+            } else {
+                throw new IllegalArgumentException(
+                        "Cannot apply range to " + String.join("/", path) + ", it is not a matching array");
+            }
+
+            // The array is always copied before the first range, since the current one may be shared with another
+            // compound. After that it is only copied again if a range changes its length.
+            length = change.length;
+            System.arraycopy(change.value, 0, array, change.offset, count);
+        }
+
+        target.set(array, path);
+    }
+
+    /**
+     * Encode this delta as an NBTCompound.
+     * @return The encoded delta.
+     */
+    public NBTCompound toCompound() {
+        NBTList list = new NBTList(TagType.COMPOUND);
+
+        for (Change change : changes) {
+            NBTCompound comp = new NBTCompound();
+            comp.set((byte) change.operation.ordinal(), "op");
+
+            NBTList path = new NBTList(TagType.STRING);
+            path.addAll(Arrays.asList(change.path));
+            comp.set(path, "path");
+
+            if (change.value != null) {
+                comp.set(change.value, "value");
+            }
+            if (change.operation == Operation.RANGE) {
+                comp.set(change.offset, "offset");
+                comp.set(change.length, "length");
+            }
+
+            list.add(comp);
+        }
+
+        NBTCompound root = new NBTCompound();
+        root.set(list, "changes");
+        return root;
+    }
+
+    /**
+     * Decode a delta from an NBTCompound created by {@link #toCompound()}.
+     * @param comp The encoded delta.
+     * @return The decoded delta.
+     * @throws NBTException if the NBTCompound is not a valid delta.
+     */
+    public static NBTDelta fromCompound(NBTCompound comp) throws NBTException {
+        NBTList list = comp.getList("changes")
+                .orElseThrow(() -> new NBTException("Delta is missing its changes"));
+        List<Change> changes = new ArrayList<>(list.size());
+
+        for (int i = 0; i < list.size(); i++) {
+            NBTCompound change = list.getCompound(i)
+                    .orElseThrow(() -> new NBTException("Delta change is not a COMPOUND"));
+
+            byte op = change.getByte("op").orElseThrow(() -> new NBTException("Delta change is missing its op"));
+            if (op < 0 || op >= Operation.values().length) {
+                throw new NBTException("Invalid delta op: " + op);
+            }
+            Operation operation = Operation.values()[op];
+
+            NBTList pathList = change.getList("path")
+                    .orElseThrow(() -> new NBTException("Delta change is missing its path"));
+            if (pathList.isEmpty() || pathList.getType() != TagType.STRING) {
+                throw new NBTException("Delta change path must be a non-empty list of STRING");
+            }
+            String[] path = pathList.toArray(new String[0]);
+
+            Object value = change.get("value").orElse(null);
+            if (value == null && operation != Operation.REMOVE) {
+                throw new NBTException("Delta change is missing its value");
+            }
+
+            int offset = 0;
+            int length = 0;
+            if (operation == Operation.RANGE) {
+                offset = change.getInt("offset").orElse(-1);
+                length = change.getInt("length").orElse(-1);
+
+                int count = value instanceof int[] ints ? ints.length : value instanceof long[] longs ? longs.length : -1;
+                if (count < 0 || offset < 0 || length < 0 || (long) offset + count > length) {
+                    throw new NBTException("Invalid delta range");
+                }
+            }
+
+            changes.add(new Change(operation, path, value, offset, length));
+        }
+
+        return new NBTDelta(changes);
+    }
+
+    /**
+     * Write this delta, uncompressed, to the given OutputStream.
+     * @param out The OutputStream to write to.
+     * @throws IOException if there was an issue writing to the OutputStream.
+     */
+    public void write(OutputStream out) throws IOException {
+        new NBTWriter(out, false).write(toCompound());
+    }
+
+    /**
+     * Read a delta from the given InputStream.
+     * @param in The InputStream to read from.
+     * @return The delta that was read.
+     * @throws IOException if there was an issue reading the delta.
+     */
+    public static NBTDelta read(InputStream in) throws IOException {
+        return read(in, NBTLimits.UNLIMITED);
+    }
+
+    /**
+     * Read a delta from the given InputStream, failing if it exceeds any of the given limits.
+     * @param in The InputStream to read from.
+     * @param limits The limits to enforce while reading the delta.
+     * @return The delta that was read.
+     * @throws IOException if there was an issue reading the delta.
+     * @throws NBTException if the delta exceeds any of the limits.
+     */
+    public static NBTDelta read(InputStream in, NBTLimits limits) throws IOException {
+        return fromCompound(new NBTReader(in, limits).read());
+    }
+
+    @Override
+    public String toString() {
+        return "NBTDelta{" + changes + "}";
+    }
+
+}
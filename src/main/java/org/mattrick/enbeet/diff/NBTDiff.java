@@ -0,0 +1,239 @@
+package org.mattrick.enbeet.diff;
+
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.NBTList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * Computes structural deltas between NBTCompounds.
+ *
+ * Nested compounds are compared key by key, so only the paths that actually changed end up in the delta. Lists are
+ * replaced as a whole. Large int[] and long[] arrays are compared element by element, and only the changed ranges are
+ * included.
+ */
+public final class NBTDiff {
+
+    /**
+     * Arrays shorter than this are always replaced as a whole.
+     */
+    private static final int MIN_RANGE_ARRAY = 64;
+
+    /**
+     * Changed ranges separated by at most this many equal elements are merged, since every range has a fixed encoding
+     * overhead.
+     */
+    private static final int MAX_RANGE_GAP = 8;
+
+    private NBTDiff() {
+    }
+
+    /**
+     * Compute the delta that turns one NBTCompound into another. Neither compound is modified, and values are only
+     * copied when they end up in the delta, so that changes to the delta's values and to the updated NBTCompound do not
+     * affect each other.
+     * @param from The original NBTCompound.
+     * @param to The updated NBTCompound.
+     * @return The delta between the two.
+     */
+    public static NBTDelta diff(NBTCompound from, NBTCompound to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+
+        List<NBTDelta.Change> changes = new ArrayList<>();
+        diffCompound(from, to, new String[0], changes);
+        return new NBTDelta(changes);
+    }
+
+    private static void diffCompound(NBTCompound from, NBTCompound to, String[] parent, List<NBTDelta.Change> changes) {
+        Map<String, Object> fromData = from.view();
+        Map<String, Object> toData = to.view();
+
+        for (String key : fromData.keySet()) {
+            if (!toData.containsKey(key)) {
+                changes.add(new NBTDelta.Change(NBTDelta.Operation.REMOVE, path(parent, key), null, 0, 0));
+            }
+        }
+
+        for (Map.Entry<String, Object> entry : toData.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+
+            if (!fromData.containsKey(key)) {
+                changes.add(new NBTDelta.Change(NBTDelta.Operation.ADD, path(parent, key), detach(value), 0, 0));
+                continue;
+            }
+
+            Object old = fromData.get(key);
+            if (old instanceof NBTCompound oldComp && value instanceof NBTCompound comp) {
+                diffCompound(oldComp, comp, path(parent, key), changes);
+            } else if (old instanceof int[] oldArray && value instanceof int[] array) {
+                diffArray(oldArray.length, array.length, i -> oldArray[i] == array[i],
+                        (start, end) -> Arrays.copyOfRange(array, start, end), value, path(parent, key), changes);
+            } else if (old instanceof long[] oldArray && value instanceof long[] array) {
+                diffArray(oldArray.length, array.length, i -> oldArray[i] == array[i],
+                        (start, end) -> Arrays.copyOfRange(array, start, end), value, path(parent, key), changes);
+            } else if (!valueEquals(old, value)) {
+                changes.add(new NBTDelta.Change(NBTDelta.Operation.CHANGE, path(parent, key), detach(value), 0, 0));
+            }
+        }
+    }
+
+    /**
+     * Detach a value from the compound it was read from, which may share it with copy-on-write clones.
+     */
+    private static Object detach(Object value) {
+        if (value instanceof NBTCompound comp) {
+            return comp.copyOnWrite();
+        }
+        if (value instanceof NBTList list) {
+            return list.copyOnWrite();
+        }
+        if (value instanceof byte[] array) {
+            return array.clone();
+        }
+        if (value instanceof int[] array) {
+            return array.clone();
+        }
+        if (value instanceof long[] array) {
+            return array.clone();
+        }
+        return value;
+    }
+
+    private interface Slicer {
+        Object slice(int start, int end);
+    }
+
+    private static void diffArray(int fromLength, int toLength, IntPredicate equal, Slicer slicer, Object value,
+                                  String[] path, List<NBTDelta.Change> changes) {
+        if (toLength < MIN_RANGE_ARRAY) {
+            if (fromLength != toLength || !allEqual(toLength, equal)) {
+                changes.add(new NBTDelta.Change(NBTDelta.Operation.CHANGE, path, detach(value), 0, 0));
+            }
+            return;
+        }
+
+        // Find the changed [start, end) ranges, merging those separated by small gaps
+        List<int[]> ranges = new ArrayList<>();
+        int common = Math.min(fromLength, toLength);
+        int changed = 0;
+        int i = 0;
+        while (i < common) {
+            if (equal.test(i)) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            int end = i + 1;
+            for (i = end; i < common && i - end <= MAX_RANGE_GAP; i++) {
+                if (!equal.test(i)) {
+                    end = i + 1;
+                }
+            }
+            i = end;
+
+            ranges.add(new int[] {start, end});
+            changed += end - start;
+        }
+
+        // Elements past the end of the old array are always new
+        if (toLength > fromLength) {
+            int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && fromLength - last[1] <= MAX_RANGE_GAP) {
+                changed += toLength - last[1];
+                last[1] = toLength;
+            } else {
+                ranges.add(new int[] {fromLength, toLength});
+                changed += toLength - fromLength;
+            }
+        } else if (toLength < fromLength && ranges.isEmpty()) {
+            // Only truncated, which still needs a change to carry the new length
+            ranges.add(new int[] {toLength, toLength});
+        }
+
+        if (ranges.isEmpty()) {
+            return;
+        }
+
+        // Once most of the array has changed, replacing it is smaller than describing the ranges
+        if (changed * 2 >= toLength) {
+            changes.add(new NBTDelta.Change(NBTDelta.Operation.CHANGE, path, detach(value), 0, 0));
+            return;
+        }
+
+        for (int[] range : ranges) {
+            changes.add(new NBTDelta.Change(NBTDelta.Operation.RANGE, path, slicer.slice(range[0], range[1]), range[0],
+                    toLength));
+        }
+    }
+
+    private static boolean allEqual(int length, IntPredicate equal) {
+        for (int i = 0; i < length; i++) {
+            if (!equal.test(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] path(String[] parent, String key) {
+        String[] path = Arrays.copyOf(parent, parent.length + 1);
+        path[parent.length] = key;
+        return path;
+    }
+
+    /**
+     * Compare two NBT values, comparing arrays by their contents.
+     * @param a The first value.
+     * @param b The second value.
+     * @return true if both values are equal.
+     */
+    static boolean valueEquals(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a instanceof byte[] x && b instanceof byte[] y) {
+            return Arrays.equals(x, y);
+        }
+        if (a instanceof int[] x && b instanceof int[] y) {
+            return Arrays.equals(x, y);
+        }
+        if (a instanceof long[] x && b instanceof long[] y) {
+            return Arrays.equals(x, y);
+        }
+        if (a instanceof NBTList x && b instanceof NBTList y) {
+            if (x.getType() != y.getType() || x.size() != y.size()) {
+                return false;
+            }
+            for (int i = 0; i < x.size(); i++) {
+                if (!valueEquals(x.get(i).orElse(null), y.get(i).orElse(null))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof NBTCompound x && b instanceof NBTCompound y) {
+            Map<String, Object> xData = x.view();
+            Map<String, Object> yData = y.view();
+            if (!xData.keySet().equals(yData.keySet())) {
+                return false;
+            }
+            for (Map.Entry<String, Object> entry : xData.entrySet()) {
+                if (!valueEquals(entry.getValue(), yData.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return Objects.equals(a, b);
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.mattrick.enbeet.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from an InputStream and, optionally, the time spent reading them.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private final boolean timed;
+    private long count;
+    private long nanos;
+
+    MeteredInputStream(InputStream in, boolean timed) {
+        super(in);
+        this.timed = timed;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        int value = super.read();
+        if (timed) {
+            nanos += System.nanoTime() - start;
+        }
+
+        if (value >= 0) {
+            count++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        int read = super.read(b, off, len);
+        if (timed) {
+            nanos += System.nanoTime() - start;
+        }
+
+        if (read > 0) {
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+}
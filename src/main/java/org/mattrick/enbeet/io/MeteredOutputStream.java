@@ -0,0 +1,60 @@
+package org.mattrick.enbeet.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to an OutputStream and, optionally, the time spent writing them.
+ */
+class MeteredOutputStream extends FilterOutputStream {
+
+    private final boolean timed;
+    private long count;
+    private long nanos;
+
+    MeteredOutputStream(OutputStream out, boolean timed) {
+        super(out);
+        this.timed = timed;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        out.write(b);
+        if (timed) {
+            nanos += System.nanoTime() - start;
+        }
+
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        out.write(b, off, len);
+        if (timed) {
+            nanos += System.nanoTime() - start;
+        }
+
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        out.flush();
+        if (timed) {
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+}
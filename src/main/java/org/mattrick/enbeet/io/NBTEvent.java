@@ -0,0 +1,110 @@
+package org.mattrick.enbeet.io;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Timespan;
+import org.mattrick.enbeet.TagType;
+
+/**
+ * The fields shared by the JDK Flight Recorder events emitted by NBTReader and NBTWriter. The events are disabled by
+ * default, so that a recording only instruments reads and writes when it asks for them.
+ */
+@Category("enbeet")
+@Enabled(false)
+abstract class NBTEvent extends Event {
+
+    @Label("Compressed")
+    boolean compressed;
+
+    @Label("Raw Bytes")
+    @DataAmount
+    long rawBytes;
+
+    @Label("Compressed Bytes")
+    @DataAmount
+    long compressedBytes;
+
+    @Label("Max Depth")
+    int maxDepth;
+
+    @Label("Largest Array")
+    int largestArray;
+
+    @Label("Codec Time")
+    @Timespan
+    long codecTime;
+
+    @Label("Compression Time")
+    @Timespan
+    long compressionTime;
+
+    @Label("Tags")
+    int tags;
+
+    @Label("Byte Tags")
+    int byteTags;
+
+    @Label("Short Tags")
+    int shortTags;
+
+    @Label("Int Tags")
+    int intTags;
+
+    @Label("Long Tags")
+    int longTags;
+
+    @Label("Float Tags")
+    int floatTags;
+
+    @Label("Double Tags")
+    int doubleTags;
+
+    @Label("Byte Array Tags")
+    int byteArrayTags;
+
+    @Label("String Tags")
+    int stringTags;
+
+    @Label("List Tags")
+    int listTags;
+
+    @Label("Compound Tags")
+    int compoundTags;
+
+    @Label("Int Array Tags")
+    int intArrayTags;
+
+    @Label("Long Array Tags")
+    int longArrayTags;
+
+    /**
+     * Copy the given statistics into this event.
+     * @param stats The statistics to copy.
+     */
+    void set(NBTStats stats) {
+        compressed = stats.isCompressed();
+        rawBytes = stats.getRawBytes();
+        compressedBytes = stats.getCompressedBytes();
+        maxDepth = stats.getMaxDepth();
+        largestArray = stats.getLargestArray();
+        codecTime = stats.getCodecNanos();
+        compressionTime = stats.getCompressionNanos();
+        tags = stats.getTagCount();
+        byteTags = stats.getTagCount(TagType.BYTE);
+        shortTags = stats.getTagCount(TagType.SHORT);
+        intTags = stats.getTagCount(TagType.INT);
+        longTags = stats.getTagCount(TagType.LONG);
+        floatTags = stats.getTagCount(TagType.FLOAT);
+        doubleTags = stats.getTagCount(TagType.DOUBLE);
+        byteArrayTags = stats.getTagCount(TagType.BYTE_ARRAY);
+        stringTags = stats.getTagCount(TagType.STRING);
+        listTags = stats.getTagCount(TagType.LIST);
+        compoundTags = stats.getTagCount(TagType.COMPOUND);
+        intArrayTags = stats.getTagCount(TagType.INT_ARRAY);
+        longArrayTags = stats.getTagCount(TagType.LONG_ARRAY);
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.mattrick.enbeet.io;
+
+/**
+ * Limits on the resources an NBTReader may use while decoding, to safely read untrusted data. An NBTException is
+ * thrown as soon as any limit is exceeded.
+ */
+public class NBTLimits {
+
+    /**
+     * No limits at all. This is the default for an NBTReader.
+     */
+    public static final NBTLimits UNLIMITED = new NBTLimits(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final long maxBytes;
+    private final int maxDepth;
+    private final int maxLength;
+
+    /**
+     * Create new NBTLimits.
+     * @param maxBytes The maximum number of bytes that may be allocated for decoded values of a single NBTCompound.
+     *                 The approximate heap size of every compound, list, string, number and array is counted as it
+     *                 is created, arrays before they are allocated, and every list element and compound entry is
+     *                 counted on top of the size of its value.
+     * @param maxDepth The maximum nesting depth of compounds and lists. The root compound has a depth of 1.
+     * @param maxLength The maximum length of a single byte, int or long array or list.
+     */
+    public NBTLimits(long maxBytes, int maxDepth, int maxLength) {
+        if (maxBytes < 0 || maxDepth < 1 || maxLength < 0) {
+            throw new IllegalArgumentException("limits must not be negative, and maxDepth must allow the root");
+        }
+
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Get the maximum number of bytes that may be allocated for decoded values of a single NBTCompound.
+     * @return The maximum number of bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the maximum nesting depth of compounds and lists.
+     * @return The maximum depth.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Get the maximum length of a single array or list.
+     * @return The maximum length.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    @Override
+    public String toString() {
+        return "NBTLimits{" +
+                "maxBytes=" + maxBytes +
+                ", maxDepth=" + maxDepth +
+                ", maxLength=" + maxLength +
+                "}";
+    }
+
+}
@@ -0,0 +1,25 @@
+package org.mattrick.enbeet.io;
+
+/**
+ * Receives statistics about every NBTCompound read by an NBTReader or written by an NBTWriter.
+ *
+ * Instrumentation is opt-in: readers and writers created without a listener (and without the JFR events being
+ * enabled) do not collect any statistics.
+ */
+public interface NBTListener {
+
+    /**
+     * Called after an NBTCompound has been successfully read.
+     * @param stats The statistics of the read operation.
+     */
+    default void onRead(NBTStats stats) {
+    }
+
+    /**
+     * Called after an NBTCompound has been successfully written.
+     * @param stats The statistics of the write operation.
+     */
+    default void onWrite(NBTStats stats) {
+    }
+
+}
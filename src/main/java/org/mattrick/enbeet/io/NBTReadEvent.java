@@ -0,0 +1,14 @@
+package org.mattrick.enbeet.io;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event emitted when an NBTReader reads an NBTCompound.
+ */
+@Name("org.mattrick.enbeet.Read")
+@Label("NBT Read")
+@Description("An NBTCompound was read by an NBTReader")
+class NBTReadEvent extends NBTEvent {
+}
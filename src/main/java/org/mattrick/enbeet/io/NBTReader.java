@@ -4,10 +4,18 @@ import org.mattrick.enbeet.NBTCompound;
 import org.mattrick.enbeet.NBTList;
 import org.mattrick.enbeet.TagType;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiPredicate;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -17,7 +25,34 @@ import java.util.zip.GZIPInputStream;
  */
 public class NBTReader {
 
+    // Approximate heap cost of the objects created while reading, charged against the byte limit as each is created,
+    // so that values without a payload of their own, like empty compounds, can't be used to allocate unbounded amounts
+    // of memory
+    private static final int COMPOUND_SIZE = 80;
+    private static final int LIST_SIZE = 48;
+    private static final int STRING_SIZE = 40;
+    private static final int ARRAY_SIZE = 16;
+    private static final int BOX_SIZE = 16;
+    private static final int ENTRY_SIZE = 48;
+    private static final int REFERENCE_SIZE = 8;
+
     private final DataInputStream in;
+    private final NBTLimits limits;
+    private final NBTListener listener;
+    private final boolean instrumented;
+    private MeteredInputStream compressedMeter;
+    private MeteredInputStream rawMeter;
+    private MeteredInputStream inflateMeter;
+    private long compressedMark;
+    private long rawMark;
+    private boolean compressed;
+    private NBTStats stats;
+    private int depth;
+    private long allocated;
+    private int remaining;
+    private BiPredicate<String[], Object> visitor;
+    private byte[] keyBuffer = new byte[64];
+    private int keyLength;
 
     /**
      * Creates an NBTReader using the specified InputStream. Will attempt to ungzip compressed data, otherwise it will
@@ -26,6 +61,45 @@ public class NBTReader {
      * @throws IOException if there was an error ungzipping the data.
      */
     public NBTReader(InputStream in) throws IOException {
+        this(in, NBTLimits.UNLIMITED, null);
+    }
+
+    /**
+     * Creates an NBTReader using the specified InputStream, reporting statistics about every read NBTCompound to the
+     * given listener. Will attempt to ungzip compressed data, otherwise it will not perform any decompression.
+     * @param in The InputStream.
+     * @param listener The listener to report statistics to, or null to only report to JDK Flight Recorder.
+     * @throws IOException if there was an error ungzipping the data.
+     */
+    public NBTReader(InputStream in, NBTListener listener) throws IOException {
+        this(in, NBTLimits.UNLIMITED, listener);
+    }
+
+    /**
+     * Creates an NBTReader using the specified InputStream, failing with an NBTException as soon as the data exceeds
+     * any of the given limits. Will attempt to ungzip compressed data, otherwise it will not perform any
+     * decompression.
+     * @param in The InputStream.
+     * @param limits The limits to enforce while decoding.
+     * @throws IOException if there was an error ungzipping the data.
+     */
+    public NBTReader(InputStream in, NBTLimits limits) throws IOException {
+        this(in, limits, null);
+    }
+
+    /**
+     * Creates an NBTReader using the specified InputStream, failing with an NBTException as soon as the data exceeds
+     * any of the given limits and reporting statistics about every read NBTCompound to the given listener. Will
+     * attempt to ungzip compressed data, otherwise it will not perform any decompression.
+     * @param in The InputStream.
+     * @param limits The limits to enforce while decoding.
+     * @param listener The listener to report statistics to, or null to only report to JDK Flight Recorder.
+     * @throws IOException if there was an error ungzipping the data.
+     */
+    public NBTReader(InputStream in, NBTLimits limits, NBTListener listener) throws IOException {
+        this.limits = Objects.requireNonNull(limits);
+        this.listener = listener;
+        this.instrumented = listener != null || new NBTReadEvent().isEnabled();
         this.in = new DataInputStream(conditionallyUngzip(in));
     }
 
@@ -35,10 +109,100 @@ public class NBTReader {
      * @throws IOException if there was an issue with reading the NBTCompound.
      */
     public NBTCompound read() throws IOException {
+        return read((PathNode) null, null);
+    }
+
+    /**
+     * Read the NBTCompound from the InputStream, expecting it to follow the given schema. The result is the same as
+     * {@link #read()}, but data that follows the schema is decoded faster.
+     * @param schema The expected layout of the NBTCompound.
+     * @return The NBT Compound that was read.
+     * @throws IOException if there was an issue with reading the NBTCompound.
+     */
+    public NBTCompound read(NBTSchema schema) throws IOException {
+        return read(null, Objects.requireNonNull(schema));
+    }
+
+    /**
+     * Read only the values at the given paths of the NBTCompound from the InputStream. Every other value is skipped
+     * without being decoded, and reading stops as soon as all paths have been found. Since the rest of the
+     * NBTCompound is not read, nothing else should be read from this NBTReader afterwards.
+     * @param paths The paths to read, in the same form as {@link NBTCompound#get(String...)}. A path that ends at a
+     *              compound reads the whole compound.
+     * @return An NBTCompound containing only the values that were found at the given paths.
+     * @throws IOException if there was an issue with reading the NBTCompound.
+     */
+    public NBTCompound read(String[]... paths) throws IOException {
+        return read(PathNode.of(paths), null);
+    }
+
+    /**
+     * Read only the values at the given paths, like {@link #read(String[]...)}, passing every value to the given
+     * visitor as soon as it has been read. If the visitor returns false, reading stops right away, leaving the
+     * returned NBTCompound incomplete.
+     * @param visitor Called with each path that was found, which must not be modified, and the value at it.
+     * @param paths The paths to read, in the same form as {@link NBTCompound#get(String...)}. A path that ends at a
+     *              compound reads the whole compound.
+     * @return An NBTCompound containing only the values that were found at the given paths.
+     * @throws IOException if there was an issue with reading the NBTCompound.
+     */
+    public NBTCompound read(BiPredicate<String[], Object> visitor, String[]... paths) throws IOException {
+        this.visitor = Objects.requireNonNull(visitor);
+        try {
+            return read(PathNode.of(paths), null);
+        } finally {
+            this.visitor = null;
+        }
+    }
+
+    private NBTCompound read(PathNode filter, NBTSchema schema) throws IOException {
+        if (!instrumented) {
+            return readRoot(filter, schema);
+        }
+
+        NBTReadEvent event = new NBTReadEvent();
+        event.begin();
+
+        stats = new NBTStats(compressed);
+        long start = System.nanoTime();
+        long compressionStart = inflateMeter == null ? 0 : inflateMeter.getNanos();
+
+        NBTCompound comp;
+        try {
+            comp = readRoot(filter, schema);
+            stats.finish(
+                    rawMeter.getCount() - rawMark,
+                    compressedMeter.getCount() - compressedMark,
+                    System.nanoTime() - start,
+                    inflateMeter == null ? 0 : inflateMeter.getNanos() - compressionStart
+            );
+            // Bytes are measured from the end of the previous read, so the gzip magic that was peeked when creating
+            // the reader is attributed to the first read
+            rawMark = rawMeter.getCount();
+            compressedMark = compressedMeter.getCount();
+        } finally {
+            event.end();
+        }
+
+        if (listener != null) {
+            listener.onRead(stats);
+        }
+        if (event.shouldCommit()) {
+            event.set(stats);
+            event.commit();
+        }
+
+        stats = null;
+        return comp;
+    }
+
+    private NBTCompound readRoot(PathNode filter, NBTSchema schema) throws IOException {
+        depth = 0;
+        allocated = 0;
         TagType type = readType();
 
         if (type == TagType.END) {
-            return new NBTCompound();
+            return newCompound();
         }
 
         if (type != TagType.COMPOUND) {
@@ -48,7 +212,18 @@ public class NBTReader {
         // Read and ignore the name portion of the "named tag"
         in.readUTF();
 
-        return readCompound();
+        if (stats != null) {
+            stats.countTag(TagType.COMPOUND);
+        }
+
+        if (schema != null) {
+            return readCompound(schema);
+        }
+        if (filter == null) {
+            return readCompound();
+        }
+        remaining = filter.countLeaves();
+        return readCompound(filter);
     }
 
     private TagType readType() throws IOException {
@@ -63,22 +238,218 @@ public class NBTReader {
     }
 
     private NBTCompound readCompound() throws IOException {
-        NBTCompound comp = new NBTCompound();
+        NBTCompound comp = newCompound();
+        enter();
 
         TagType type = readType();
         while (type != TagType.END) {
-            String key = in.readUTF();
+            String key = readString();
+            allocate(ENTRY_SIZE);
             Object value = readTag(type);
 
-            comp.set(value, key);
+            comp.data().put(key, value);
 
             type = readType();
         }
 
+        depth--;
         return comp;
     }
 
+    private NBTCompound readCompound(NBTSchema schema) throws IOException {
+        NBTCompound comp = newCompound();
+        Map<String, Object> data = comp.data();
+        NBTSchema.Field[] fields = schema.fields();
+        int next = 0;
+        enter();
+
+        TagType type = readType();
+        while (type != TagType.END) {
+            NBTSchema.Field field = next < fields.length ? fields[next] : null;
+
+            readKey();
+            String key;
+            if (field != null && keyEquals(field.key)) {
+                key = field.name;
+                next++;
+            } else {
+                // Not the expected key, so look for it among the other fields before decoding it, and resume matching
+                // after wherever it is in the schema
+                int index = findKey(fields, next);
+                if (index < 0) {
+                    key = decodeKey();
+                    index = schema.indexOf(key);
+                } else {
+                    key = fields[index].name;
+                }
+                field = index < 0 ? null : fields[index];
+                next = index < 0 ? next : index + 1;
+            }
+            allocate(ENTRY_SIZE);
+
+            Object value;
+            if (field == null || field.type != type) {
+                value = readTag(type);
+            } else if (field.reader != null) {
+                if (stats != null) {
+                    stats.countTag(type);
+                }
+                allocate(BOX_SIZE + field.size);
+                value = field.reader.read(in);
+            } else if (type == TagType.STRING) {
+                if (stats != null) {
+                    stats.countTag(type);
+                }
+                value = readString();
+            } else if (field.schema != null) {
+                if (stats != null) {
+                    stats.countTag(type);
+                }
+                value = type == TagType.COMPOUND ? readCompound(field.schema) : readList(field.schema);
+            } else {
+                value = readTag(type);
+            }
+            data.put(key, value);
+
+            type = readType();
+        }
+
+        depth--;
+        return comp;
+    }
+
+    /**
+     * Read the raw bytes of the next key into the key buffer, without decoding them.
+     */
+    private void readKey() throws IOException {
+        keyLength = in.readUnsignedShort();
+        if (keyLength > keyBuffer.length) {
+            keyBuffer = new byte[Math.max(keyLength, keyBuffer.length * 2)];
+        }
+        in.readFully(keyBuffer, 0, keyLength);
+    }
+
+    private int findKey(NBTSchema.Field[] fields, int start) {
+        for (int i = 0; i < fields.length; i++) {
+            int index = (start + i) % fields.length;
+            if (keyEquals(fields[index].key)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(byte[] expected) {
+        return keyLength == expected.length && Arrays.equals(keyBuffer, 0, keyLength, expected, 0, expected.length);
+    }
+
+    /**
+     * Decode the key in the key buffer, after it did not match the expected bytes.
+     */
+    private String decodeKey() throws IOException {
+        String key = null;
+        for (int i = 0; i < keyLength; i++) {
+            if (keyBuffer[i] < 0) {
+                // Not plain ASCII, so let DataInputStream decode the modified UTF-8
+                byte[] utf = new byte[keyLength + 2];
+                utf[0] = (byte) (keyLength >>> 8);
+                utf[1] = (byte) keyLength;
+                System.arraycopy(keyBuffer, 0, utf, 2, keyLength);
+                key = new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+                break;
+            }
+        }
+        if (key == null) {
+            key = new String(keyBuffer, 0, keyLength, StandardCharsets.ISO_8859_1);
+        }
+
+        allocateString(key.length());
+        return key;
+    }
+
+    private NBTList readList(NBTSchema schema) throws IOException {
+        TagType listType = readType();
+        if (listType != TagType.COMPOUND) {
+            return readListElements(listType);
+        }
+
+        int len = readListLength(listType);
+
+        NBTList list = newList(listType);
+        enter();
+        for (int i = 0; i < len; i++) {
+            if (stats != null) {
+                stats.countTag(listType);
+            }
+            list.add(readCompound(schema));
+        }
+        depth--;
+        return list;
+    }
+
+    private NBTCompound readCompound(PathNode filter) throws IOException {
+        NBTCompound comp = newCompound();
+        enter();
+
+        while (remaining > 0) {
+            TagType type = readType();
+            if (type == TagType.END) {
+                break;
+            }
+
+            // Keys of skipped values are dropped right away, so only the kept ones are charged
+            String key = in.readUTF();
+            PathNode child = filter.children.get(key);
+            if (child == null) {
+                skipTag(type);
+            } else if (child.isLeaf()) {
+                allocateString(key.length());
+                allocate(ENTRY_SIZE);
+                Object value = readTag(type);
+                comp.set(value, key);
+                remaining--;
+
+                if (visitor != null && !visitor.test(child.path, value)) {
+                    // Unwinds every nested compound without reading any further
+                    remaining = 0;
+                }
+            } else if (type == TagType.COMPOUND) {
+                if (stats != null) {
+                    stats.countTag(type);
+                }
+                allocateString(key.length());
+                allocate(ENTRY_SIZE);
+                comp.set(readCompound(child), key);
+            } else {
+                // The path continues, but this value is not a compound, so it cannot contain the path
+                skipTag(type);
+            }
+        }
+
+        depth--;
+        return comp;
+    }
+
+    private void enter() throws NBTException {
+        depth++;
+        if (depth > limits.getMaxDepth()) {
+            throw new NBTException("NBT exceeds the maximum depth of " + limits.getMaxDepth());
+        }
+        if (stats != null) {
+            stats.countDepth(depth);
+        }
+    }
+
     private Object readTag(TagType type) throws IOException {
+        if (stats != null) {
+            stats.countTag(type);
+        }
+
+        int size = sizeOf(type);
+        if (size > 0) {
+            allocate(BOX_SIZE + size);
+        }
+
         return switch (type) {
             case END -> null;
             case BYTE -> in.readByte();
@@ -88,7 +459,7 @@ public class NBTReader {
             case FLOAT -> in.readFloat();
             case DOUBLE -> in.readDouble();
             case BYTE_ARRAY -> readByteArray();
-            case STRING -> in.readUTF();
+            case STRING -> readString();
             case LIST -> readList();
             case COMPOUND -> readCompound();
             case INT_ARRAY -> readIntArray();
@@ -97,33 +468,106 @@ public class NBTReader {
     }
 
     private byte[] readByteArray() throws IOException {
-        int len = in.readInt();
+        int len = readArrayLength(TagType.BYTE);
         byte[] value = new byte[len];
-
-        for (int i = 0; i < len; i++) {
-            value[i] = in.readByte();
-        }
+        in.readFully(value);
 
         return value;
     }
 
     private NBTList readList() throws IOException {
-        TagType listType = readType();
+        return readListElements(readType());
+    }
+
+    private NBTList readListElements(TagType listType) throws IOException {
+        int len = readListLength(listType);
+
+        NBTList list = newList(listType);
+        enter();
+        for (int i = 0; i < len; i++) {
+            list.add(readTag(listType));
+        }
+        depth--;
+        return list;
+    }
 
+    private int readListLength(TagType listType) throws IOException {
         int len = in.readInt();
         if (len < 0) {
             len = 0;
         }
+        if (len > 0 && listType == TagType.END) {
+            throw new NBTException("Invalid NBT list of " + len + " END elements");
+        }
+        checkLength(len);
+        // Account for the slots of the list before they are filled
+        allocate((long) len * REFERENCE_SIZE);
 
-        NBTList list = new NBTList(listType);
-        for (int i = 0; i < len; i++) {
-            list.add(readTag(listType));
+        return len;
+    }
+
+    private int readArrayLength(TagType elementType) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            throw new NBTException("Invalid NBT array length: " + len);
         }
-        return list;
+        checkLength(len);
+        // Account for the whole array before it is allocated
+        allocate(ARRAY_SIZE + (long) len * sizeOf(elementType));
+
+        if (stats != null) {
+            stats.countArray(len);
+        }
+        return len;
+    }
+
+    private void checkLength(int len) throws NBTException {
+        if (len > limits.getMaxLength()) {
+            throw new NBTException("NBT length " + len + " exceeds the maximum length of " + limits.getMaxLength());
+        }
+    }
+
+    private String readString() throws IOException {
+        String value = in.readUTF();
+        allocateString(value.length());
+        return value;
+    }
+
+    private NBTCompound newCompound() throws NBTException {
+        allocate(COMPOUND_SIZE);
+        return new NBTCompound();
+    }
+
+    private NBTList newList(TagType listType) throws NBTException {
+        allocate(LIST_SIZE);
+        return new NBTList(listType);
+    }
+
+    private void allocateString(int length) throws NBTException {
+        allocate(STRING_SIZE + 2L * length);
+    }
+
+    private void allocate(long bytes) throws NBTException {
+        allocated += bytes;
+        if (allocated > limits.getMaxBytes()) {
+            throw new NBTException("NBT exceeds the maximum size of " + limits.getMaxBytes() + " bytes");
+        }
+    }
+
+    static int sizeOf(TagType type) {
+        return switch (type) {
+            case BYTE -> Byte.BYTES;
+            case SHORT -> Short.BYTES;
+            case INT -> Integer.BYTES;
+            case LONG -> Long.BYTES;
+            case FLOAT -> Float.BYTES;
+            case DOUBLE -> Double.BYTES;
+            default -> 0;
+        };
     }
 
     private int[] readIntArray() throws IOException {
-        int len = in.readInt();
+        int len = readArrayLength(TagType.INT);
         int[] value = new int[len];
 
         for (int i = 0; i < len; i++) {
@@ -134,7 +578,7 @@ public class NBTReader {
     }
 
     private long[] readLongArray() throws IOException {
-        int len = in.readInt();
+        int len = readArrayLength(TagType.LONG);
         long[] value = new long[len];
 
         for (int i = 0; i < len; i++) {
@@ -144,18 +588,190 @@ public class NBTReader {
         return value;
     }
 
+    /**
+     * Skip over the next root NBTCompound without decoding it.
+     * @return false if the stream ended before the root, true otherwise.
+     * @throws IOException if there was an issue with reading the NBTCompound.
+     */
+    boolean skipRoot() throws IOException {
+        int id = in.read();
+        if (id < 0) {
+            return false;
+        }
+
+        TagType type = TagType.from((byte) id);
+        if (type == null) {
+            throw new NBTException("Invalid NBT tag type id: " + id);
+        }
+        if (type == TagType.END) {
+            return true;
+        }
+        if (type != TagType.COMPOUND) {
+            throw new IOException("Expected COMPOUND at root, instead got " + type.name() + ".");
+        }
+
+        depth = 0;
+        skip(in.readUnsignedShort());
+        skipCompound();
+        return true;
+    }
+
+    private void skipTag(TagType type) throws IOException {
+        switch (type) {
+            case END -> {}
+            case BYTE, SHORT, INT, LONG, FLOAT, DOUBLE -> skip(sizeOf(type));
+            case BYTE_ARRAY -> skip(skipArrayLength());
+            case STRING -> skip(in.readUnsignedShort());
+            case LIST -> skipList();
+            case COMPOUND -> skipCompound();
+            case INT_ARRAY -> skip((long) skipArrayLength() * Integer.BYTES);
+            case LONG_ARRAY -> skip((long) skipArrayLength() * Long.BYTES);
+        }
+    }
+
+    private int skipArrayLength() throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            throw new NBTException("Invalid NBT array length: " + len);
+        }
+        checkLength(len);
+        return len;
+    }
+
+    private void skipList() throws IOException {
+        TagType listType = readType();
+
+        int len = in.readInt();
+        if (len < 0) {
+            len = 0;
+        }
+        if (len > 0 && listType == TagType.END) {
+            throw new NBTException("Invalid NBT list of " + len + " END elements");
+        }
+        checkLength(len);
+
+        enter();
+        int size = sizeOf(listType);
+        if (size > 0) {
+            skip((long) len * size);
+        } else {
+            for (int i = 0; i < len; i++) {
+                skipTag(listType);
+            }
+        }
+        depth--;
+    }
+
+    private void skipCompound() throws IOException {
+        enter();
+
+        TagType type = readType();
+        while (type != TagType.END) {
+            skip(in.readUnsignedShort());
+            skipTag(type);
+
+            type = readType();
+        }
+
+        depth--;
+    }
+
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // skipBytes gives up at the end of the stream, so read a byte to fail with an EOFException instead
+                in.readByte();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
     private InputStream conditionallyUngzip(InputStream in) throws IOException {
+        if (instrumented) {
+            in = compressedMeter = new MeteredInputStream(in, false);
+        }
+
         PushbackInputStream pushback = new PushbackInputStream(in, 2);
         byte[] bytes = new byte[2];
         int len = pushback.read(bytes);
-        pushback.unread(bytes, 0, len);
+        if (len > 0) {
+            pushback.unread(bytes, 0, len);
+        }
 
         int magic = ((bytes[1] << 8) & 0xff00) | bytes[0];
-        if (magic == GZIPInputStream.GZIP_MAGIC) {
-            return new GZIPInputStream(pushback);
+        compressed = magic == GZIPInputStream.GZIP_MAGIC;
+
+        // Inflating a byte at a time is slow, so the inflated data is buffered. Uncompressed data is not, to avoid
+        // reading past the end of the NBTCompound on the caller's stream
+        InputStream result = pushback;
+        if (compressed) {
+            result = new GZIPInputStream(result);
+            if (instrumented) {
+                // The inflater is timed a buffer at a time, rather than a byte at a time
+                result = inflateMeter = new MeteredInputStream(result, true);
+            }
+            result = new BufferedInputStream(result);
+        }
+        if (instrumented) {
+            result = rawMeter = new MeteredInputStream(result, false);
+        }
+        return result;
+    }
+
+    /**
+     * A node in the tree of paths passed to {@link #read(String[]...)}. Leaves have no children and are read whole.
+     */
+    private static class PathNode {
+
+        private final Map<String, PathNode> children;
+        // The whole path of a leaf
+        private final String[] path;
+
+        private PathNode(Map<String, PathNode> children, String[] path) {
+            this.children = children;
+            this.path = path;
+        }
+
+        private static PathNode of(String[]... paths) {
+            PathNode root = new PathNode(new HashMap<>(), null);
+
+            for (String[] path : paths) {
+                if (path == null || path.length == 0) {
+                    throw new IllegalArgumentException("path must not be blank");
+                }
+
+                PathNode node = root;
+                for (int i = 0; i < path.length - 1 && node != null; i++) {
+                    // A shorter path that was already added reads this whole subtree anyway
+                    node = node.children.computeIfAbsent(path[i], key -> new PathNode(new HashMap<>(), null));
+                    node = node.isLeaf() ? null : node;
+                }
+                if (node != null) {
+                    node.children.put(path[path.length - 1], new PathNode(null, path.clone()));
+                }
+            }
+
+            return root;
+        }
+
+        private boolean isLeaf() {
+            return children == null;
+        }
+
+        private int countLeaves() {
+            if (isLeaf()) {
+                return 1;
+            }
+
+            int count = 0;
+            for (PathNode child : children.values()) {
+                count += child.countLeaves();
+            }
+            return count;
         }
 
-        return pushback;
     }
 
 }
@@ -0,0 +1,422 @@
+package org.mattrick.enbeet.io;
+
+import org.mattrick.enbeet.NBTCompound;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads many root NBTCompounds from a single InputStream, in order.
+ *
+ * Reading is pipelined over several threads: one reads and inflates the stream, one splits it into records, and a pool
+ * of workers decodes the records in parallel. Bounded queues between the stages limit how far ahead of the consumer
+ * they can get.
+ *
+ * The whole stream may be gzipped, in which case it is inflated by the first stage. With
+ * {@link Framing#LENGTH_PREFIXED} framing, each record may also be gzipped on its own, in which case it is inflated by
+ * the workers in parallel.
+ */
+public class NBTRecordReader implements Iterator<NBTCompound>, Closeable {
+
+    /**
+     * How the records are separated in the stream.
+     */
+    public enum Framing {
+        /**
+         * Records directly follow each other. Record boundaries are found by skipping over each record.
+         */
+        CONCATENATED,
+        /**
+         * Every record is preceded by its length in bytes, as a big-endian int.
+         */
+        LENGTH_PREFIXED
+    }
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // The largest array the JVM can reliably allocate
+    private static final int MAX_RECORD_SIZE = Integer.MAX_VALUE - 8;
+    private static final int QUEUE_SIZE = 64;
+    // Marks the end of the records, or of the chunks
+    private static final Future<NBTCompound> END = CompletableFuture.completedFuture(null);
+    private static final byte[] END_CHUNK = new byte[0];
+
+    private final InputStream source;
+    private final Framing framing;
+    private final NBTLimits limits;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final BlockingQueue<Future<NBTCompound>> records = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final ExecutorService workers;
+    private final Thread inflater;
+    private final Thread framer;
+    private volatile Throwable inflateFailure;
+    private Future<NBTCompound> next;
+    // Also set by close(), which may be called from another thread
+    private volatile boolean done;
+
+    /**
+     * Create a new NBTRecordReader, decoding records on all but one of the available processors.
+     * @param in The InputStream to read the records from.
+     * @param framing How the records are separated in the stream.
+     */
+    public NBTRecordReader(InputStream in, Framing framing) {
+        this(in, framing, NBTLimits.UNLIMITED, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Create a new NBTRecordReader.
+     * @param in The InputStream to read the records from.
+     * @param framing How the records are separated in the stream.
+     * @param limits The limits to enforce while decoding each record. With length-prefixed framing, no record may be
+     *               longer than the maximum number of bytes either.
+     * @param parallelism The number of threads decoding records.
+     */
+    public NBTRecordReader(InputStream in, Framing framing, NBTLimits limits, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+
+        this.source = Objects.requireNonNull(in);
+        this.framing = Objects.requireNonNull(framing);
+        this.limits = Objects.requireNonNull(limits);
+
+        this.workers = Executors.newFixedThreadPool(parallelism, runnable -> daemon(runnable, "NBTRecordReader worker"));
+        this.inflater = daemon(this::inflate, "NBTRecordReader inflater");
+        this.framer = daemon(this::frame, "NBTRecordReader framer");
+        inflater.start();
+        framer.start();
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * The first stage: read the stream, inflating it if it is gzipped, and pass it on in chunks.
+     */
+    private void inflate() {
+        try {
+            PushbackInputStream pushback = new PushbackInputStream(source, 2);
+            byte[] magic = new byte[2];
+            int len = pushback.readNBytes(magic, 0, 2);
+            if (len > 0) {
+                pushback.unread(magic, 0, len);
+            }
+
+            InputStream in = pushback;
+            if (len == 2 && (((magic[1] << 8) & 0xff00) | (magic[0] & 0xff)) == GZIPInputStream.GZIP_MAGIC) {
+                in = new GZIPInputStream(pushback, CHUNK_SIZE);
+            }
+
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = in.readNBytes(chunk, 0, chunk.length)) > 0) {
+                chunks.put(read == chunk.length ? chunk : Arrays.copyOf(chunk, read));
+                chunk = new byte[CHUNK_SIZE];
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (Throwable e) {
+            // Anything else, including errors, is passed on, so that the next stages never wait for more chunks
+            inflateFailure = e;
+        }
+
+        try {
+            chunks.put(END_CHUNK);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * The second stage: split the chunks into records, and hand each record to a worker.
+     */
+    private void frame() {
+        try {
+            InputStream in = new BufferedInputStream(new ChunkInputStream(), CHUNK_SIZE);
+            if (framing == Framing.LENGTH_PREFIXED) {
+                frameLengthPrefixed(new DataInputStream(in));
+            } else {
+                frameConcatenated(in);
+            }
+            records.put(END);
+        } catch (InterruptedException ignored) {
+        } catch (Throwable e) {
+            // Anything else, including errors, ends the records, so that the consumer never waits for more of them
+            putFailure(e);
+        }
+    }
+
+    private void frameLengthPrefixed(DataInputStream in) throws IOException, InterruptedException {
+        while (true) {
+            int first = in.read();
+            if (first < 0) {
+                return;
+            }
+
+            int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+            if (length < 0 || length > limits.getMaxBytes()) {
+                throw new NBTException("Invalid NBT record length: " + length);
+            }
+
+            byte[] record = new byte[length];
+            in.readFully(record);
+            submit(record);
+        }
+    }
+
+    private void frameConcatenated(InputStream in) throws IOException, InterruptedException {
+        RecordingInputStream recording = new RecordingInputStream(in, limits.getMaxBytes());
+        NBTReader reader = new NBTReader(recording, limits);
+
+        while (reader.skipRoot()) {
+            submit(recording.cut());
+        }
+    }
+
+    private void submit(byte[] record) throws InterruptedException {
+        records.put(workers.submit(() -> new NBTReader(new ByteArrayInputStream(record), limits).read()));
+    }
+
+    private void putFailure(Throwable e) {
+        CompletableFuture<NBTCompound> failure = new CompletableFuture<>();
+        failure.completeExceptionally(e);
+        try {
+            records.put(failure);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (done) {
+            return false;
+        }
+        if (next == null) {
+            try {
+                next = records.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("Interrupted while reading records", e));
+            }
+        }
+        if (next == END || done) {
+            done = true;
+            workers.shutdown();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the next record.
+     * @return The next NBTCompound.
+     * @throws UncheckedIOException if the record could not be read.
+     */
+    @Override
+    public NBTCompound next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Future<NBTCompound> current = next;
+        next = null;
+        try {
+            return current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted while reading records", e));
+        } catch (CancellationException e) {
+            throw new UncheckedIOException(new IOException("NBTRecordReader was closed", e));
+        } catch (ExecutionException e) {
+            // The stream can't be resumed after a failure
+            done = true;
+            workers.shutdown();
+
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw new UncheckedIOException(io);
+            }
+            throw new UncheckedIOException(new IOException(cause));
+        }
+    }
+
+    /**
+     * Get the remaining records as a sequential Stream. Closing the Stream closes this NBTRecordReader.
+     * @return A Stream of the remaining records.
+     */
+    public Stream<NBTCompound> stream() {
+        Spliterator<NBTCompound> spliterator =
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Stop all stages and close the InputStream. May be called from another thread, in which case a consumer waiting
+     * for the next record sees the end of the records.
+     * @throws IOException if there was an issue closing the InputStream.
+     */
+    @Override
+    public void close() throws IOException {
+        done = true;
+        inflater.interrupt();
+        framer.interrupt();
+        for (Runnable task : workers.shutdownNow()) {
+            // Records that were never decoded must not leave the consumer waiting for them
+            ((Future<?>) task).cancel(false);
+        }
+
+        // Wake up a consumer blocked in hasNext(), making room for the END if the framer filled the queue
+        while (!records.offer(END)) {
+            records.clear();
+        }
+        source.close();
+    }
+
+    /**
+     * Reads the chunks passed on by the first stage.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private byte[] chunk = new byte[0];
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (position == chunk.length) {
+                if (chunk == END_CHUNK) {
+                    return -1;
+                }
+
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading records", e);
+                }
+                position = 0;
+
+                if (chunk == END_CHUNK && inflateFailure != null) {
+                    if (inflateFailure instanceof IOException io) {
+                        throw io;
+                    }
+                    throw new IOException("Could not read records", inflateFailure);
+                }
+            }
+
+            len = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, len);
+            position += len;
+            return len;
+        }
+
+    }
+
+    /**
+     * Keeps every byte read from an InputStream, so the bytes of each record can be cut off once it has been skipped.
+     * Fails once a record grows past the maximum size, before it is buffered any further.
+     */
+    private static class RecordingInputStream extends FilterInputStream {
+
+        private final int maxLength;
+        private byte[] buffer = new byte[1024];
+        private int length;
+
+        private RecordingInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxLength = (int) Math.min(maxBytes, MAX_RECORD_SIZE);
+        }
+
+        private byte[] cut() {
+            byte[] record = Arrays.copyOf(buffer, length);
+            length = 0;
+            return record;
+        }
+
+        private void ensureCapacity(int len) throws NBTException {
+            if (len > maxLength - length) {
+                throw new NBTException("NBT record exceeds the maximum size of " + maxLength + " bytes");
+            }
+            if (length + len > buffer.length) {
+                long grown = Math.max(length + len, (long) buffer.length * 2);
+                buffer = Arrays.copyOf(buffer, (int) Math.min(grown, maxLength));
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                ensureCapacity(1);
+                buffer[length++] = (byte) value;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                ensureCapacity(read);
+                System.arraycopy(b, off, buffer, length, read);
+                length += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes are part of the record too, so they have to be read
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+    }
+
+}
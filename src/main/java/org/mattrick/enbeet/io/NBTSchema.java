@@ -0,0 +1,149 @@
+package org.mattrick.enbeet.io;
+
+import org.mattrick.enbeet.TagType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The expected layout of an NBTCompound: its keys in their usual order, and the type of each value.
+ *
+ * An NBTReader reading with a schema compares each key against the raw bytes of the expected key instead of decoding
+ * it, and checks the type against the expected one. Keys that are missing, reordered, unknown or of another type are
+ * still read correctly, just without the fast path.
+ *
+ * <pre>{@code
+ * NBTSchema item = new NBTSchema()
+ *         .field("id", TagType.STRING)
+ *         .field("Count", TagType.BYTE)
+ *         .compound("tag", new NBTSchema().field("Damage", TagType.INT));
+ * }</pre>
+ */
+public class NBTSchema {
+
+    /**
+     * Reads the payload of a single value of a known type.
+     */
+    @FunctionalInterface
+    interface ValueReader {
+
+        Object read(DataInput in) throws IOException;
+
+    }
+
+    static class Field {
+
+        final String name;
+        final byte[] key;
+        final TagType type;
+        final NBTSchema schema;
+        // Resolved once here, so that a matching value is read without dispatching on its type. Null for values that
+        // are not a single fixed size primitive.
+        final ValueReader reader;
+        final int size;
+
+        private Field(String name, TagType type, NBTSchema schema) {
+            this.name = name;
+            this.key = encode(name);
+            this.type = type;
+            this.schema = schema;
+            this.reader = readerOf(type);
+            this.size = NBTReader.sizeOf(type);
+        }
+
+    }
+
+    private Field[] fields = new Field[0];
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    /**
+     * Add a field with the given key and type.
+     * @param name The key of the field.
+     * @param type The type of the field.
+     * @return This NBTSchema.
+     */
+    public NBTSchema field(String name, TagType type) {
+        Objects.requireNonNull(type);
+        if (type == TagType.END) {
+            throw new IllegalArgumentException("type must not be END");
+        }
+        return add(new Field(name, type, null));
+    }
+
+    /**
+     * Add a compound field, which is itself read with the given schema.
+     * @param name The key of the field.
+     * @param schema The schema of the compound.
+     * @return This NBTSchema.
+     */
+    public NBTSchema compound(String name, NBTSchema schema) {
+        return add(new Field(name, TagType.COMPOUND, Objects.requireNonNull(schema)));
+    }
+
+    /**
+     * Add a list field containing compounds, each of which is read with the given schema.
+     * @param name The key of the field.
+     * @param schema The schema of the compounds in the list.
+     * @return This NBTSchema.
+     */
+    public NBTSchema list(String name, NBTSchema schema) {
+        return add(new Field(name, TagType.LIST, Objects.requireNonNull(schema)));
+    }
+
+    private NBTSchema add(Field field) {
+        if (indices.containsKey(field.name)) {
+            throw new IllegalArgumentException("Duplicate field: " + field.name);
+        }
+
+        indices.put(field.name, fields.length);
+        fields = Arrays.copyOf(fields, fields.length + 1);
+        fields[fields.length - 1] = field;
+        return this;
+    }
+
+    Field[] fields() {
+        return fields;
+    }
+
+    /**
+     * Get the index of the field with the given key.
+     * @param name The key of the field.
+     * @return The index of the field, or -1 if the schema does not contain it.
+     */
+    int indexOf(String name) {
+        return indices.getOrDefault(name, -1);
+    }
+
+    private static ValueReader readerOf(TagType type) {
+        return switch (type) {
+            case BYTE -> DataInput::readByte;
+            case SHORT -> DataInput::readShort;
+            case INT -> DataInput::readInt;
+            case LONG -> DataInput::readLong;
+            case FLOAT -> DataInput::readFloat;
+            case DOUBLE -> DataInput::readDouble;
+            default -> null;
+        };
+    }
+
+    private static byte[] encode(String name) {
+        Objects.requireNonNull(name);
+
+        // Keys are stored as modified UTF-8, which is what DataOutputStream writes after the 2 byte length
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(bytes).writeUTF(name);
+        } catch (IOException e) {
+            // ByteArrayOutputStream cannot fail, so this means the key is too long to be encoded
+            throw new IllegalArgumentException("Key is too long: " + name.length() + " characters", e);
+        }
+        return Arrays.copyOfRange(bytes.toByteArray(), 2, bytes.size());
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.mattrick.enbeet.io;
+
+import org.mattrick.enbeet.TagType;
+
+import java.util.Arrays;
+
+/**
+ * Statistics collected while reading or writing a single NBTCompound.
+ */
+public class NBTStats {
+
+    private final boolean compressed;
+    private final int[] tagCounts = new int[TagType.values().length];
+    private long rawBytes;
+    private long compressedBytes;
+    private int maxDepth;
+    private int largestArray;
+    private long codecNanos;
+    private long compressionNanos;
+
+    NBTStats(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Was the NBT data gzipped.
+     * @return true if the data was gzipped.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Get the number of uncompressed NBT bytes that were read or written.
+     * @return The number of uncompressed bytes.
+     */
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * Get the number of gzipped bytes that were read or written. This will be equal to the raw byte count if the data
+     * was not compressed. When writing, these are the bytes the deflater emitted during the write, it may hold some back
+     * until a later write or finish().
+     * @return The number of compressed bytes.
+     */
+    public long getCompressedBytes() {
+        return compressed ? compressedBytes : rawBytes;
+    }
+
+    /**
+     * Get the number of tags of the given type that were read or written, including the root compound.
+     * @param type The type of tag.
+     * @return The number of tags of the given type.
+     */
+    public int getTagCount(TagType type) {
+        return tagCounts[type.ordinal()];
+    }
+
+    /**
+     * Get the total number of tags that were read or written, including the root compound.
+     * @return The total number of tags.
+     */
+    public int getTagCount() {
+        return Arrays.stream(tagCounts).sum();
+    }
+
+    /**
+     * Get the deepest level of nested compounds and lists. The root compound has a depth of 1.
+     * @return The maximum depth.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Get the length of the largest byte, int or long array.
+     * @return The length of the largest array.
+     */
+    public int getLargestArray() {
+        return largestArray;
+    }
+
+    /**
+     * Get the time spent decoding or encoding NBT, excluding time spent on compression.
+     * @return The time in nanoseconds.
+     */
+    public long getCodecNanos() {
+        return codecNanos;
+    }
+
+    /**
+     * Get the time spent inflating or deflating the gzipped data. This includes the time spent on the underlying
+     * stream.
+     * @return The time in nanoseconds.
+     */
+    public long getCompressionNanos() {
+        return compressionNanos;
+    }
+
+    void countTag(TagType type) {
+        tagCounts[type.ordinal()]++;
+    }
+
+    void countDepth(int depth) {
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    void countArray(int length) {
+        if (length > largestArray) {
+            largestArray = length;
+        }
+    }
+
+    void finish(long rawBytes, long compressedBytes, long totalNanos, long compressionNanos) {
+        this.rawBytes = rawBytes;
+        this.compressedBytes = compressedBytes;
+        this.compressionNanos = compressionNanos;
+        this.codecNanos = totalNanos - compressionNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "NBTStats{" +
+                "compressed=" + compressed +
+                ", rawBytes=" + rawBytes +
+                ", compressedBytes=" + getCompressedBytes() +
+                ", tags=" + getTagCount() +
+                ", maxDepth=" + maxDepth +
+                ", largestArray=" + largestArray +
+                ", codecNanos=" + codecNanos +
+                ", compressionNanos=" + compressionNanos +
+                "}";
+    }
+
+}
@@ -0,0 +1,14 @@
+package org.mattrick.enbeet.io;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event emitted when an NBTWriter writes an NBTCompound.
+ */
+@Name("org.mattrick.enbeet.Write")
+@Label("NBT Write")
+@Description("An NBTCompound was written by an NBTWriter")
+class NBTWriteEvent extends NBTEvent {
+}
@@ -4,6 +4,7 @@ import org.mattrick.enbeet.NBTCompound;
 import org.mattrick.enbeet.NBTList;
 import org.mattrick.enbeet.TagType;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -14,6 +15,16 @@ import java.util.zip.GZIPOutputStream;
 public class NBTWriter {
 
     private final DataOutputStream out;
+    private final GZIPOutputStream gzipOut;
+    private final boolean gzip;
+    private final NBTListener listener;
+    private final boolean instrumented;
+    private MeteredOutputStream compressedMeter;
+    private MeteredOutputStream rawMeter;
+    private MeteredOutputStream deflateMeter;
+    private DeflateBuffer deflateBuffer;
+    private NBTStats stats;
+    private int depth;
 
     /**
      * Create a new NBTWriter with the given output stream. Will apply Gzip compression by default.
@@ -31,10 +42,39 @@ public class NBTWriter {
      * @throws IOException if there was an issue creating the GzipOutputStream.
      */
     public NBTWriter(OutputStream out, boolean gzip) throws IOException {
+        this(out, gzip, null);
+    }
+
+    /**
+     * Create a new NBTWriter, optionally applying Gzip compression, reporting statistics about every written
+     * NBTCompound to the given listener.
+     * @param out The OutputStream to write to.
+     * @param gzip Should this NBTWriter apply Gzip compression.
+     * @param listener The listener to report statistics to, or null to only report to JDK Flight Recorder.
+     * @throws IOException if there was an issue creating the GzipOutputStream.
+     */
+    public NBTWriter(OutputStream out, boolean gzip, NBTListener listener) throws IOException {
         Objects.requireNonNull(out);
 
+        this.gzip = gzip;
+        this.listener = listener;
+        this.instrumented = listener != null || new NBTWriteEvent().isEnabled();
+
+        if (instrumented) {
+            out = compressedMeter = new MeteredOutputStream(out, false);
+        }
         if (gzip) {
-            out = new GZIPOutputStream(out);
+            out = gzipOut = new GZIPOutputStream(out);
+        } else {
+            gzipOut = null;
+        }
+        if (instrumented) {
+            if (gzip) {
+                // The deflater is timed a buffer at a time, rather than a byte at a time
+                out = deflateMeter = new MeteredOutputStream(out, true);
+                out = deflateBuffer = new DeflateBuffer(out);
+            }
+            out = rawMeter = new MeteredOutputStream(out, false);
         }
 
         this.out = new DataOutputStream(out);
@@ -48,8 +88,68 @@ public class NBTWriter {
     public void write(NBTCompound nbt) throws IOException {
         Objects.requireNonNull(nbt);
 
+        if (!instrumented) {
+            writeRoot(nbt);
+            return;
+        }
+
+        NBTWriteEvent event = new NBTWriteEvent();
+        event.begin();
+
+        stats = new NBTStats(gzip);
+        long start = System.nanoTime();
+        long compressedStart = compressedMeter.getCount();
+        long rawStart = rawMeter.getCount();
+        long compressionStart = deflateMeter == null ? 0 : deflateMeter.getNanos();
+
+        try {
+            writeRoot(nbt);
+            if (deflateBuffer != null) {
+                // Hand the buffered bytes to the deflater, so its time is attributed to this write. The deflater is not
+                // flushed, as that would change the output. The compressed bytes counted are the ones it emitted.
+                deflateBuffer.drain();
+            }
+            stats.finish(
+                    rawMeter.getCount() - rawStart,
+                    compressedMeter.getCount() - compressedStart,
+                    System.nanoTime() - start,
+                    deflateMeter == null ? 0 : deflateMeter.getNanos() - compressionStart
+            );
+        } finally {
+            event.end();
+        }
+
+        if (listener != null) {
+            listener.onWrite(stats);
+        }
+        if (event.shouldCommit()) {
+            event.set(stats);
+            event.commit();
+        }
+
+        stats = null;
+    }
+
+    /**
+     * Flush everything written so far to the given OutputStream, finishing the Gzip compression if it is applied. The
+     * OutputStream is not closed. Nothing can be written after this when compressing.
+     * @throws IOException if there was an issue writing to the OutputStream.
+     */
+    public void finish() throws IOException {
+        out.flush();
+        if (gzipOut != null) {
+            gzipOut.finish();
+        }
+    }
+
+    private void writeRoot(NBTCompound nbt) throws IOException {
+        depth = 0;
+
         writeTagId(TagType.COMPOUND);
         out.writeUTF(nbt.getName().orElse(""));
+        if (stats != null) {
+            stats.countTag(TagType.COMPOUND);
+        }
         writeCompound(nbt);
     }
 
@@ -70,6 +170,10 @@ public class NBTWriter {
     }
 
     private void writeValue(TagType type, Object value) throws IOException {
+        if (stats != null) {
+            stats.countTag(type);
+        }
+
         switch (type) {
             case END -> {}
             case BYTE -> out.writeByte((byte) value);
@@ -88,7 +192,7 @@ public class NBTWriter {
     }
 
     private void writeByteArray(byte[] data) throws IOException {
-        out.writeInt(data.length);
+        writeArrayLength(data.length);
 
         for (byte value : data) {
             out.writeByte(value);
@@ -98,21 +202,39 @@ public class NBTWriter {
     private void writeList(NBTList data) throws IOException {
         TagType type = data.getType();
         out.writeByte(type.getId());
-        out.writeByte(data.size());
+        out.writeInt(data.size());
+        enter();
         for (Object value : data) {
             writeValue(type, value);
         }
+        depth--;
     }
 
     private void writeCompound(NBTCompound comp) throws IOException {
-        for (Map.Entry<String, Object> entry : comp.data().entrySet()) {
+        enter();
+        for (Map.Entry<String, Object> entry : comp.view().entrySet()) {
             writeTag(entry.getKey(), entry.getValue());
         }
         writeTagId(TagType.END);
+        depth--;
+    }
+
+    private void enter() {
+        depth++;
+        if (stats != null) {
+            stats.countDepth(depth);
+        }
+    }
+
+    private void writeArrayLength(int length) throws IOException {
+        out.writeInt(length);
+        if (stats != null) {
+            stats.countArray(length);
+        }
     }
 
     private void writeIntArray(int[] data) throws IOException {
-        out.writeInt(data.length);
+        writeArrayLength(data.length);
 
         for (int value : data) {
             out.writeInt(value);
@@ -120,11 +242,34 @@ public class NBTWriter {
     }
 
     private void writeLongArray(long[] data) throws IOException {
-        out.writeInt(data.length);
+        writeArrayLength(data.length);
 
         for (long value : data) {
             out.writeLong(value);
         }
     }
 
+    /**
+     * Buffers the bytes written to the deflater, so it is called and timed a buffer at a time, rather than a byte at a
+     * time.
+     */
+    private static class DeflateBuffer extends BufferedOutputStream {
+
+        private DeflateBuffer(OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * Write the buffered bytes to the underlying stream without flushing it.
+         * @throws IOException if there was an issue writing to the underlying stream.
+         */
+        private void drain() throws IOException {
+            if (count > 0) {
+                out.write(buf, 0, count);
+                count = 0;
+            }
+        }
+
+    }
+
 }
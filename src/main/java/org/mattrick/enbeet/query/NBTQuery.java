@@ -0,0 +1,410 @@
+package org.mattrick.enbeet.query;
+
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.io.NBTLimits;
+import org.mattrick.enbeet.io.NBTReader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A query over many NBT files, made of conditions on values at given paths and a projection of the values to return.
+ *
+ * Only the values at the condition and projection paths are decoded. Every other value is skipped, and each file is
+ * only read until all paths have been found, or until a condition fails. Files are scanned in parallel.
+ *
+ * <pre>{@code
+ * NBTQuery query = new NBTQuery()
+ *         .where(NBTList.class, entities -> entities.size() > 500, "Level", "Entities")
+ *         .select("Level", "xPos")
+ *         .select("Level", "zPos");
+ * try (Stream<NBTQuery.Result> results = query.scan(Path.of("world/chunks"))) {
+ *     results.forEach(result -> System.out.println(result.getFile()));
+ * }
+ * }</pre>
+ */
+public class NBTQuery {
+
+    /**
+     * A file that matched a query, and the projected values of it.
+     */
+    public static class Result {
+
+        private final Path file;
+        private final NBTCompound compound;
+
+        private Result(Path file, NBTCompound compound) {
+            this.file = file;
+            this.compound = compound;
+        }
+
+        /**
+         * Get the file that matched.
+         * @return The path of the file.
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Get the projected values of the file.
+         * @return An NBTCompound containing only the selected paths that exist in the file.
+         */
+        public NBTCompound getCompound() {
+            return compound;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + file + ", " + compound + "}";
+        }
+
+    }
+
+    private static class Condition {
+
+        private final String[] path;
+        private final Predicate<Object> predicate;
+
+        private Condition(String[] path, Predicate<Object> predicate) {
+            this.path = path;
+            this.predicate = predicate;
+        }
+
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Threads of a scan that is no longer consumed stop after this long, even if its Stream is never closed
+    private static final long KEEP_ALIVE_SECONDS = 1;
+
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<String[]> projection = new ArrayList<>();
+    private NBTLimits limits = NBTLimits.UNLIMITED;
+    private Predicate<Path> filter = file -> true;
+    private BiConsumer<Path, IOException> errorHandler;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Add a condition that the value at the given path exists and matches the given predicate.
+     * @param predicate The predicate the value must match.
+     * @param path The path of the value.
+     * @return This NBTQuery.
+     */
+    public NBTQuery where(Predicate<Object> predicate, String... path) {
+        Objects.requireNonNull(predicate);
+        conditions.add(new Condition(checkPath(path), predicate));
+        return this;
+    }
+
+    /**
+     * Add a condition that the value at the given path exists, is of the given type and matches the given predicate.
+     * @param type The type the value must be.
+     * @param predicate The predicate the value must match.
+     * @param path The path of the value.
+     * @param <T> The type of the value.
+     * @return This NBTQuery.
+     */
+    public <T> NBTQuery where(Class<T> type, Predicate<? super T> predicate, String... path) {
+        Objects.requireNonNull(type);
+        Objects.requireNonNull(predicate);
+        return where(value -> type.isInstance(value) && predicate.test(type.cast(value)), path);
+    }
+
+    /**
+     * Add a path to the projection returned for every matching file.
+     * @param path The path to return.
+     * @return This NBTQuery.
+     */
+    public NBTQuery select(String... path) {
+        projection.add(checkPath(path));
+        return this;
+    }
+
+    /**
+     * Set the limits to read every file with. Defaults to {@link NBTLimits#UNLIMITED}.
+     * @param limits The limits.
+     * @return This NBTQuery.
+     */
+    public NBTQuery limits(NBTLimits limits) {
+        this.limits = Objects.requireNonNull(limits);
+        return this;
+    }
+
+    /**
+     * Only scan the files matching the given filter, for example to skip lock files or files with another extension.
+     * Defaults to every regular file.
+     * @param filter The filter for the files to scan.
+     * @return This NBTQuery.
+     */
+    public NBTQuery files(Predicate<Path> filter) {
+        this.filter = Objects.requireNonNull(filter);
+        return this;
+    }
+
+    /**
+     * Skip the files that could not be read while scanning, passing them to the given handler instead of failing the
+     * scan. The handler is called on the thread consuming the scan.
+     * @param handler The handler for the files that could not be read.
+     * @return This NBTQuery.
+     */
+    public NBTQuery onError(BiConsumer<Path, IOException> handler) {
+        this.errorHandler = Objects.requireNonNull(handler);
+        return this;
+    }
+
+    /**
+     * Set the number of files read at the same time while scanning. Defaults to the number of available processors.
+     * @param parallelism The number of threads reading files.
+     * @return This NBTQuery.
+     */
+    public NBTQuery parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    private static String[] checkPath(String[] path) {
+        if (path == null || path.length == 0) {
+            throw new IllegalArgumentException("path must not be blank");
+        }
+        return path.clone();
+    }
+
+    /**
+     * Check if an NBTCompound matches every condition of this query.
+     * @param nbt The NBTCompound to check.
+     * @return true if the NBTCompound matches.
+     */
+    public boolean matches(NBTCompound nbt) {
+        for (Condition condition : conditions) {
+            Optional<Object> value = nbt.get(condition.path);
+            if (value.isEmpty() || !condition.predicate.test(value.get())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run this query against a single NBT stream.
+     * @param in The InputStream to read the NBT from.
+     * @return An Optional containing the projected values if the NBT matches.
+     * @throws IOException if there was an issue with reading the NBT.
+     */
+    public Optional<NBTCompound> query(InputStream in) throws IOException {
+        List<String[]> paths = new ArrayList<>(projection);
+        for (Condition condition : conditions) {
+            paths.add(condition.path);
+        }
+
+        // Conditions are checked as soon as their value has been read, so reading stops at the first one that fails
+        boolean[] passed = new boolean[conditions.size()];
+        NBTCompound partial = new NBTReader(in, limits).read((path, value) -> {
+            for (int i = 0; i < passed.length; i++) {
+                Condition condition = conditions.get(i);
+                if (startsWith(condition.path, path)) {
+                    passed[i] = test(condition, path.length, value);
+                    if (!passed[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }, paths.toArray(new String[0][]));
+
+        // Conditions whose path was not found fail as well
+        for (boolean pass : passed) {
+            if (!pass) {
+                return Optional.empty();
+            }
+        }
+
+        NBTCompound result = new NBTCompound();
+        for (String[] path : projection) {
+            partial.get(path).ifPresent(value -> result.set(value, path));
+        }
+        return Optional.of(result);
+    }
+
+    private static boolean startsWith(String[] path, String[] prefix) {
+        return path.length >= prefix.length && Arrays.equals(path, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static boolean test(Condition condition, int depth, Object value) {
+        if (depth < condition.path.length) {
+            // A shorter path read a whole compound containing the value of the condition
+            if (!(value instanceof NBTCompound comp)) {
+                return false;
+            }
+            Optional<Object> nested = comp.get(Arrays.copyOfRange(condition.path, depth, condition.path.length));
+            return nested.isPresent() && condition.predicate.test(nested.get());
+        }
+        return condition.predicate.test(value);
+    }
+
+    /**
+     * Run this query against every regular file in the given directory and its subdirectories. Every file must
+     * contain a single, optionally gzipped, NBTCompound.
+     *
+     * The directory is listed while the Stream is consumed, and files are read in parallel by a dedicated pool of
+     * threads, which stays a few files ahead of the consumer. The Stream holds the directory listing open, so it must
+     * be closed, for example with try-with-resources, which also stops the scan. The threads stop on their own once
+     * they are idle, even if the Stream is not closed.
+     * @param directory The directory to scan.
+     * @return A Stream of the matching files, in the order they were listed. Reading a file, or listing a directory,
+     *         fails with an UncheckedIOException, unless an error handler was set.
+     * @throws IOException if the directory could not be listed.
+     */
+    public Stream<Result> scan(Path directory) throws IOException {
+        Stream<Path> walk = Files.walk(directory);
+        Scan scan = new Scan(directory, walk);
+        Spliterator<Result> spliterator =
+                Spliterators.spliteratorUnknownSize(scan, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(scan::close);
+    }
+
+    private Optional<Result> query(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            return query(in).map(compound -> new Result(file, compound));
+        }
+    }
+
+    /**
+     * Reads the files of a scan on its own threads, and hands out the results in order.
+     */
+    private class Scan implements Iterator<Result> {
+
+        private final Path directory;
+        private final Stream<Path> walk;
+        private final Iterator<Path> files;
+        private final ThreadPoolExecutor executor;
+        private final Deque<Map.Entry<Path, Future<Optional<Result>>>> pending = new ArrayDeque<>();
+        private boolean listed;
+        private Result next;
+
+        private Scan(Path directory, Stream<Path> walk) {
+            this.directory = directory;
+            this.walk = walk;
+            this.files = walk.filter(Files::isRegularFile).filter(filter).iterator();
+            this.executor = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "NBTQuery scanner");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                // Keep every thread busy while the consumer handles a result
+                while (pending.size() < parallelism * 2 && hasNextFile()) {
+                    Path file = files.next();
+                    pending.add(Map.entry(file, executor.submit(() -> query(file))));
+                }
+                if (pending.isEmpty()) {
+                    close();
+                    return false;
+                }
+
+                Map.Entry<Path, Future<Optional<Result>>> head = pending.poll();
+                try {
+                    next = head.getValue().get().orElse(null);
+                } catch (InterruptedException e) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new IOException("Interrupted while scanning", e));
+                } catch (ExecutionException e) {
+                    handle(head.getKey(), e.getCause());
+                }
+            }
+            return true;
+        }
+
+        private boolean hasNextFile() {
+            if (listed) {
+                return false;
+            }
+
+            try {
+                listed = !files.hasNext();
+            } catch (UncheckedIOException e) {
+                // The walk cannot go on after a directory failed to be listed, so the files listed so far are finished
+                listed = true;
+                IOException cause = e.getCause();
+                handle(cause instanceof FileSystemException fs && fs.getFile() != null
+                        ? directory.getFileSystem().getPath(fs.getFile())
+                        : directory, cause);
+            }
+            return !listed;
+        }
+
+        private void handle(Path file, Throwable cause) {
+            if (cause instanceof IOException io && errorHandler != null) {
+                errorHandler.accept(file, io);
+                return;
+            }
+
+            close();
+            if (cause instanceof IOException io) {
+                throw new UncheckedIOException("Could not query " + file, io);
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Result result = next;
+            next = null;
+            return result;
+        }
+
+        private void close() {
+            listed = true;
+            pending.clear();
+            executor.shutdownNow();
+            walk.close();
+        }
+
+    }
+
+}
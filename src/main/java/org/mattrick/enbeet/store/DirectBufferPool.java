@@ -0,0 +1,98 @@
+package org.mattrick.enbeet.store;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Recycles direct ByteBuffers by size class, so that a busy store does not allocate, zero and register a new direct
+ * buffer for every entry, and so that the direct memory it holds on to stays bounded.
+ *
+ * Sizes are rounded up to one of four classes per power of two, which wastes at most a quarter of every buffer. The
+ * pool is not synchronized, it is only used while holding the lock of its store.
+ */
+class DirectBufferPool {
+
+    private static final int MIN_CLASS = 64;
+
+    private final long maxBytes;
+    private final Map<Integer, ArrayDeque<ByteBuffer>> free = new HashMap<>();
+    private long allocatedBytes;
+    private long freeBytes;
+
+    DirectBufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the capacity of the buffer that would be used for the given number of bytes.
+     * @param size The number of bytes.
+     * @return The capacity of the size class, which is never more than the maximum of the pool unless the size is.
+     */
+    int capacity(int size) {
+        int capacity = MIN_CLASS;
+        if (size > MIN_CLASS) {
+            int step = Integer.highestOneBit(size - 1) / 4;
+            capacity = (int) Math.min(((long) size + step - 1) / step * step, Integer.MAX_VALUE);
+        }
+        return capacity > maxBytes ? size : capacity;
+    }
+
+    /**
+     * Take a cleared buffer with room for the given number of bytes, reusing a free one if possible.
+     * @param size The number of bytes.
+     * @return A buffer of the size class, limited to the given size.
+     */
+    ByteBuffer take(int size) {
+        int capacity = capacity(size);
+
+        ArrayDeque<ByteBuffer> buffers = free.get(capacity);
+        ByteBuffer buffer = buffers == null ? null : buffers.poll();
+        if (buffer != null) {
+            freeBytes -= capacity;
+        } else {
+            // Free buffers of other sizes are dropped to make room, they are released by the garbage collector
+            trim(maxBytes - capacity);
+            buffer = ByteBuffer.allocateDirect(capacity);
+            allocatedBytes += capacity;
+        }
+
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer that is no longer used to the pool.
+     * @param buffer A buffer taken from this pool.
+     */
+    void release(ByteBuffer buffer) {
+        free.computeIfAbsent(buffer.capacity(), capacity -> new ArrayDeque<>()).push(buffer);
+        freeBytes += buffer.capacity();
+    }
+
+    private void trim(long target) {
+        Iterator<ArrayDeque<ByteBuffer>> it = free.values().iterator();
+        while (allocatedBytes > target && it.hasNext()) {
+            ArrayDeque<ByteBuffer> buffers = it.next();
+            while (allocatedBytes > target && !buffers.isEmpty()) {
+                int capacity = buffers.pop().capacity();
+                allocatedBytes -= capacity;
+                freeBytes -= capacity;
+            }
+            if (buffers.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    long getFreeBytes() {
+        return freeBytes;
+    }
+
+}
@@ -0,0 +1,499 @@
+package org.mattrick.enbeet.store;
+
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.NBTList;
+import org.mattrick.enbeet.TagType;
+import org.mattrick.enbeet.io.NBTException;
+import org.mattrick.enbeet.io.NBTReader;
+import org.mattrick.enbeet.io.NBTWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A crash-safe, persistent NBTCompound, stored in a directory as a gzipped snapshot and an append-only journal of the
+ * changes made since.
+ *
+ * Every {@link #set(Object, String...)} or {@link #remove(String...)} appends a small record to the journal instead
+ * of rewriting the whole compound. Records become durable once {@link #sync()} returns, and concurrent calls to sync
+ * share a single fsync. When the journal grows past its limit, it is folded into a fresh snapshot in the background.
+ * Opening a journal replays the records over the last snapshot, discarding a record that was torn by a crash.
+ *
+ * The compound must only be modified through the journal. All methods are thread-safe.
+ */
+public class NBTJournal implements Closeable {
+
+    private static final String SNAPSHOT = "snapshot.nbt";
+    private static final Pattern LOG = Pattern.compile("journal-(\\d+)\\.log");
+
+    private static final byte SET = 0;
+    private static final byte REMOVE = 1;
+
+    private final Path directory;
+    private final long maxLogBytes;
+    // Handed out as copy-on-write clones, which it never shares its changes with
+    private final NBTCompound compound;
+    // Guards synced and retired, and is taken before this when both are needed, so a sync never sees its channel
+    // rotated away
+    private final Object syncLock = new Object();
+    private final Object compactLock = new Object();
+    private ExecutorService compactor;
+    private FileChannel channel;
+    // The journal a compaction rotated away from, until it is durable
+    private FileChannel retired;
+    private long generation;
+    private long logBytes;
+    private long appended;
+    private long synced;
+    private boolean compacting;
+    private IOException compactFailure;
+    private boolean closed;
+
+    /**
+     * Open the journal in the given directory, creating it if needed, and compact it once it is over 16 MiB.
+     * @param directory The directory to store the snapshot and journal in.
+     * @throws IOException if the snapshot or journal could not be read.
+     */
+    public NBTJournal(Path directory) throws IOException {
+        this(directory, 16 * 1024 * 1024);
+    }
+
+    /**
+     * Open the journal in the given directory, creating it if needed.
+     * @param directory The directory to store the snapshot and journal in.
+     * @param maxLogBytes The journal size after which it is compacted into a new snapshot in the background.
+     * @throws IOException if the snapshot or journal could not be read.
+     */
+    public NBTJournal(Path directory, long maxLogBytes) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        this.maxLogBytes = maxLogBytes;
+        Files.createDirectories(directory);
+
+        long snapshotGeneration = -1;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            NBTCompound root;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshot))) {
+                root = new NBTReader(in).read();
+            }
+            snapshotGeneration = root.getLong("generation")
+                    .orElseThrow(() -> new NBTException("Snapshot is missing its generation"));
+            compound = root.getCompound("data")
+                    .orElseThrow(() -> new NBTException("Snapshot is missing its data"));
+        } else {
+            compound = new NBTCompound();
+        }
+
+        // Replay every journal written after the snapshot, and delete the ones it already contains
+        generation = snapshotGeneration + 1;
+        for (long logGeneration : logGenerations()) {
+            if (logGeneration <= snapshotGeneration) {
+                Files.delete(log(logGeneration));
+            } else {
+                replay(log(logGeneration));
+                generation = logGeneration;
+            }
+        }
+
+        channel = FileChannel.open(log(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        logBytes = channel.size();
+        syncDirectory();
+    }
+
+    /**
+     * Get a copy-on-write clone of the current compound. Modifying it does not modify the journal.
+     * @return The clone.
+     */
+    public synchronized NBTCompound get() {
+        return compound.copyOnWrite();
+    }
+
+    /**
+     * Set a value in the compound and append it to the journal. The value must not be modified afterwards.
+     * @param value The value to set.
+     * @param path The path to set to the value.
+     * @throws IOException if the value could not be encoded or appended.
+     */
+    public void set(Object value, String... path) throws IOException {
+        Objects.requireNonNull(value);
+        append(SET, value, path);
+    }
+
+    /**
+     * Remove a value from the compound and append the removal to the journal.
+     * @param path The path of the value to remove.
+     * @throws IOException if the removal could not be appended.
+     */
+    public void remove(String... path) throws IOException {
+        append(REMOVE, null, path);
+    }
+
+    private void append(byte op, Object value, String[] path) throws IOException {
+        if (path == null || path.length == 0) {
+            throw new IllegalArgumentException("path must not be blank");
+        }
+
+        // Encoding first means a value that cannot be written never modifies the compound
+        ByteBuffer record = encode(op, value, path);
+
+        boolean compact;
+        synchronized (this) {
+            checkOpen();
+
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            appended += record.limit();
+            logBytes += record.limit();
+            apply(op, value, path);
+
+            compact = logBytes > maxLogBytes && !compacting;
+            if (compact) {
+                compacting = true;
+                if (compactor == null) {
+                    compactor = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "NBTJournal compactor " + directory);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+
+        if (compact) {
+            try {
+                compactor.execute(() -> {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        synchronized (this) {
+                            compactFailure = e;
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The journal is being closed, so the next open replays the journal instead
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        }
+    }
+
+    private void apply(byte op, Object value, String[] path) {
+        if (op == SET) {
+            compound.set(value, path);
+        } else {
+            compound.remove(path);
+        }
+    }
+
+    /**
+     * Block until every change made so far is durable on disk. Threads that sync at the same time share one fsync.
+     * @throws IOException if the journal could not be synced, or a previous background compaction failed.
+     */
+    public void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            checkOpen();
+            target = appended;
+        }
+
+        synchronized (syncLock) {
+            // Another thread's fsync may already have covered this thread's changes
+            if (synced >= target) {
+                return;
+            }
+
+            long covered;
+            FileChannel current;
+            synchronized (this) {
+                covered = appended;
+                current = channel;
+            }
+            forceRetired();
+            current.force(false);
+            synced = covered;
+        }
+    }
+
+    /**
+     * Fold the journal into a new snapshot. Writers are only blocked while the current journal is swapped for a new
+     * one, and the snapshot itself is written from a copy-on-write clone.
+     * @throws IOException if the snapshot could not be written.
+     */
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            NBTCompound clone;
+            long snapshotGeneration;
+            synchronized (syncLock) {
+                long covered;
+                synchronized (this) {
+                    checkOpen();
+                    FileChannel next = FileChannel.open(log(generation + 1),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    clone = compound.copyOnWrite();
+                    snapshotGeneration = generation;
+                    covered = appended;
+
+                    retired = channel;
+                    channel = next;
+                    generation++;
+                    logBytes = 0;
+                }
+
+                // Appends continue in the new journal while the old one is made durable, which it must be, since
+                // newer records in the new journal depend on it. A sync retries if this fails.
+                forceRetired();
+                synced = covered;
+                // Records synced to the new journal are only durable once the journal itself is
+                syncDirectory();
+            }
+
+            try {
+                writeSnapshot(clone, snapshotGeneration);
+                for (long logGeneration : logGenerations()) {
+                    if (logGeneration <= snapshotGeneration) {
+                        Files.deleteIfExists(log(logGeneration));
+                    }
+                }
+                syncDirectory();
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        }
+    }
+
+    private void writeSnapshot(NBTCompound data, long snapshotGeneration) throws IOException {
+        NBTCompound root = new NBTCompound();
+        root.set(snapshotGeneration, "generation");
+        root.set(data, "data");
+
+        Path tmp = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel file = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(file));
+            NBTWriter writer = new NBTWriter(out);
+            writer.write(root);
+            writer.finish();
+            out.flush();
+            file.force(true);
+        }
+
+        // Replacing the snapshot atomically means a crash leaves either the old or the new one
+        Files.move(tmp, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+    }
+
+    /**
+     * Make the files created, moved or deleted in the directory durable, which syncing the files themselves does not.
+     * Skipped on platforms that cannot open a directory, such as Windows.
+     */
+    /**
+     * Force and close the journal a compaction rotated away from, if it is not durable yet. Must hold syncLock.
+     */
+    private void forceRetired() throws IOException {
+        if (retired != null) {
+            retired.force(false);
+            retired.close();
+            retired = null;
+        }
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (AccessDeniedException | UnsupportedOperationException e) {
+            // Nothing to sync with
+        }
+    }
+
+    /**
+     * Sync the journal, wait for a running compaction to finish, and close it.
+     * @throws IOException if the journal could not be synced or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+
+        try {
+            sync();
+        } finally {
+            // Resources are released even if the sync failed, or a background compaction had failed before
+            ExecutorService executor;
+            synchronized (this) {
+                executor = compactor;
+            }
+            if (executor != null) {
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            synchronized (compactLock) {
+                synchronized (syncLock) {
+                    if (retired != null) {
+                        retired.close();
+                        retired = null;
+                    }
+                    synchronized (this) {
+                        if (!closed) {
+                            closed = true;
+                            channel.close();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+        if (compactFailure != null) {
+            IOException failure = compactFailure;
+            compactFailure = null;
+            throw new IOException("Background compaction failed", failure);
+        }
+    }
+
+    private ByteBuffer encode(byte op, Object value, String[] path) throws IOException {
+        NBTCompound record = new NBTCompound();
+        record.set(op, "op");
+
+        NBTList pathList = new NBTList(TagType.STRING, path.length);
+        pathList.addAll(Arrays.asList(path));
+        record.set(pathList, "path");
+
+        if (value != null) {
+            record.set(value, "value");
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        new NBTWriter(payload, false).write(record);
+
+        // Every record is framed by its length and a checksum, so a record torn by a crash can be detected
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + payload.size() + Integer.BYTES);
+        frame.putInt(payload.size());
+        frame.put(payload.toByteArray());
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+        return frame;
+    }
+
+    private void replay(Path log) throws IOException {
+        long size = Files.size(log);
+        long valid = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                // A torn length could be anything, so check it fits in the file before allocating
+                if (length < 0 || length > size - valid - 2 * Integer.BYTES) {
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                CRC32 crc = new CRC32();
+                try {
+                    in.readFully(payload);
+                    crc.update(payload);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+
+                NBTCompound record = new NBTReader(new ByteArrayInputStream(payload)).read();
+                byte op = record.getByte("op").orElseThrow(() -> new NBTException("Record is missing its op"));
+                NBTList pathList = record.getList("path")
+                        .orElseThrow(() -> new NBTException("Record is missing its path"));
+                String[] path = pathList.toArray(new String[0]);
+                Object value = record.get("value").orElse(null);
+
+                if (path.length == 0 || (op == SET && value == null) || (op != SET && op != REMOVE)) {
+                    throw new NBTException("Invalid journal record");
+                }
+                apply(op, value, path);
+                valid += Integer.BYTES + length + Integer.BYTES;
+            }
+        }
+
+        // Cut off the torn record, so new records are appended after the last valid one
+        try (FileChannel file = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            if (file.size() > valid) {
+                file.truncate(valid);
+                file.force(false);
+            }
+        }
+    }
+
+    private List<Long> logGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = LOG.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    generations.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path log(long logGeneration) {
+        return directory.resolve("journal-" + logGeneration + ".log");
+    }
+
+}
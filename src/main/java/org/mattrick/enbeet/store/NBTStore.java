@@ -0,0 +1,458 @@
+package org.mattrick.enbeet.store;
+
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.io.NBTReader;
+import org.mattrick.enbeet.io.NBTWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A size-bounded cache of NBTCompounds, kept encoded as uncompressed NBT in off-heap memory.
+ *
+ * Compounds are decoded every time they are read, so a large store only costs a few small heap objects per entry. When
+ * the store is full, the least recently used entries are evicted. Entries that were put but not yet written back are
+ * passed to the {@link WriteBack} hook before being evicted.
+ *
+ * Entries are kept in direct buffers rounded up to a size class, which are recycled once their entry is evicted,
+ * replaced or invalidated, and no longer being decoded or written back. The direct memory held by the store stays
+ * within its maximum, except for buffers that are still being decoded or written back after their entry was removed.
+ *
+ * A store can be shared between threads. Compounds are encoded and decoded, and entries are written back, outside of
+ * its lock. An evicted entry can still be read until its write-back finishes, so a concurrent reader never misses it
+ * and loads an older persistent copy instead.
+ *
+ * @param <K> The type of the keys.
+ */
+public class NBTStore<K> {
+
+    /**
+     * Persists entries that are evicted from, or flushed by, an NBTStore.
+     * @param <K> The type of the keys.
+     */
+    @FunctionalInterface
+    public interface WriteBack<K> {
+
+        /**
+         * Persist an entry. This is called without holding the lock of the store, possibly from several threads at
+         * once, and must not call {@link NBTStore#flush()}. If this throws, the entry stays modified, and an evicted
+         * entry is put back in the store unless it was put again or invalidated in the meantime.
+         * @param key The key of the entry.
+         * @param encoded A read-only buffer containing the uncompressed NBT of the entry. It is only valid until this
+         *                returns, since the buffer is recycled afterwards.
+         * @throws IOException if the entry could not be persisted.
+         */
+        void write(K key, ByteBuffer encoded) throws IOException;
+
+    }
+
+    private static class Entry {
+
+        private final ByteBuffer buffer;
+        private boolean dirty;
+        // The number of threads decoding or writing back the buffer, which can only be recycled once this is 0 and it
+        // was removed
+        private int readers;
+        private boolean removed;
+        private boolean writing;
+
+        private Entry(ByteBuffer buffer, boolean dirty) {
+            this.buffer = buffer;
+            this.dirty = dirty;
+        }
+
+    }
+
+    private final long maxBytes;
+    private final WriteBack<K> writeBack;
+    private final DirectBufferPool pool;
+    // Access order makes iteration go from the least to the most recently used entry
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Evicted entries whose write-back has not finished yet, which are still served by get
+    private final Map<K, Entry> writing = new HashMap<>();
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create a new NBTStore that drops evicted entries.
+     * @param maxBytes The maximum number of off-heap bytes used by the entries.
+     */
+    public NBTStore(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * Create a new NBTStore that writes back modified entries when they are evicted.
+     * @param maxBytes The maximum number of off-heap bytes used by the entries.
+     * @param writeBack The hook to persist modified entries with, or null to drop them.
+     */
+    public NBTStore(long maxBytes, WriteBack<K> writeBack) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+
+        this.maxBytes = maxBytes;
+        this.writeBack = writeBack;
+        this.pool = new DirectBufferPool(maxBytes);
+    }
+
+    /**
+     * Put an NBTCompound in the store, marking it as modified. The compound is encoded immediately, so later changes
+     * to it are not reflected in the store.
+     * @param key The key of the entry.
+     * @param nbt The NBTCompound to store.
+     * @throws IOException if the compound could not be encoded, or an evicted entry could not be written back, in which
+     *                     case the compound was still stored.
+     */
+    public void put(K key, NBTCompound nbt) throws IOException {
+        put(key, nbt, true);
+    }
+
+    /**
+     * Put an NBTCompound that was just loaded from its persistent copy in the store. It will not be written back
+     * unless it is put again.
+     * @param key The key of the entry.
+     * @param nbt The NBTCompound to store.
+     * @throws IOException if the compound could not be encoded, or an evicted entry could not be written back, in which
+     *                     case the compound was still stored.
+     */
+    public void putClean(K key, NBTCompound nbt) throws IOException {
+        put(key, nbt, false);
+    }
+
+    private void put(K key, NBTCompound nbt, boolean dirty) throws IOException {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(nbt);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NBTWriter(out, false).write(nbt);
+        byte[] encoded = out.toByteArray();
+
+        if (encoded.length > maxBytes) {
+            throw new IllegalArgumentException(
+                    "Entry of " + encoded.length + " bytes exceeds the store size of " + maxBytes);
+        }
+
+        store(key, encoded, dirty);
+    }
+
+    private void store(K key, byte[] encoded, boolean dirty) throws IOException {
+        List<Map.Entry<K, Entry>> victims;
+        synchronized (this) {
+            int capacity = pool.capacity(encoded.length);
+            Entry current = entries.get(key);
+            victims = evict(capacity - (current == null ? 0 : current.buffer.capacity()), key);
+
+            ByteBuffer buffer = pool.take(encoded.length);
+            buffer.put(encoded);
+            buffer.flip();
+
+            Entry old = entries.put(key, new Entry(buffer, dirty));
+            sizeBytes += capacity;
+            if (old != null) {
+                sizeBytes -= old.buffer.capacity();
+                release(old);
+            }
+        }
+
+        writeBack(victims);
+    }
+
+    /**
+     * Remove the least recently used entries until the needed number of bytes fits. Must hold the lock.
+     * @return The removed entries that need to be written back, which are pinned until they are.
+     */
+    private List<Map.Entry<K, Entry>> evict(long needed, K keep) {
+        List<Map.Entry<K, Entry>> victims = new ArrayList<>();
+        Iterator<Map.Entry<K, Entry>> it = entries.entrySet().iterator();
+        while (sizeBytes + needed > maxBytes && it.hasNext()) {
+            Map.Entry<K, Entry> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+
+            K key = eldest.getKey();
+            Entry entry = eldest.getValue();
+            it.remove();
+            sizeBytes -= entry.buffer.capacity();
+            evictions++;
+
+            if (entry.dirty && writeBack != null) {
+                victims.add(pin(key, entry));
+            }
+            if (entry.writing) {
+                // Keep serving it until its write-back, started here or by flush(), has finished
+                writing.put(key, entry);
+            }
+            release(entry);
+        }
+        return victims;
+    }
+
+    /**
+     * Mark an entry as being written back, keeping its buffer from being recycled. Must hold the lock.
+     */
+    private Map.Entry<K, Entry> pin(K key, Entry entry) {
+        entry.dirty = false;
+        entry.writing = true;
+        entry.readers++;
+        return Map.entry(key, entry);
+    }
+
+    private void release(Entry entry) {
+        entry.removed = true;
+        if (entry.readers == 0) {
+            pool.release(entry.buffer);
+        }
+    }
+
+    private void unpin(Entry entry) {
+        entry.readers--;
+        if (entry.removed && entry.readers == 0) {
+            pool.release(entry.buffer);
+        }
+    }
+
+    /**
+     * Pass pinned entries to the hook without holding the lock, then unpin them.
+     * @throws IOException the first failure of the hook, after every entry was passed to it.
+     */
+    private void writeBack(List<Map.Entry<K, Entry>> pinned) throws IOException {
+        IOException failure = null;
+        for (Map.Entry<K, Entry> victim : pinned) {
+            K key = victim.getKey();
+            Entry entry = victim.getValue();
+
+            boolean written = false;
+            try {
+                writeBack.write(key, entry.buffer.asReadOnlyBuffer());
+                written = true;
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            } finally {
+                synchronized (this) {
+                    entry.writing = false;
+                    boolean evicted = writing.remove(key, entry);
+                    if (!written) {
+                        entry.dirty = true;
+                        // Put it back rather than lose it, unless it was put again or invalidated in the meantime
+                        if (evicted && !entries.containsKey(key)) {
+                            entry.removed = false;
+                            entries.put(key, entry);
+                            sizeBytes += entry.buffer.capacity();
+                        }
+                    }
+                    unpin(entry);
+                    notifyAll();
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Get and decode the NBTCompound with the given key, marking it as recently used.
+     * @param key The key of the entry.
+     * @return An Optional containing a newly decoded NBTCompound if the key is in the store.
+     * @throws IOException if the entry could not be decoded.
+     */
+    public Optional<NBTCompound> get(K key) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = lookup(key);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            // Keep the buffer from being recycled while it is decoded outside the lock
+            entry.readers++;
+        }
+
+        try {
+            return Optional.of(new NBTReader(new ByteBufferInputStream(entry.buffer.asReadOnlyBuffer())).read());
+        } finally {
+            synchronized (this) {
+                unpin(entry);
+            }
+        }
+    }
+
+    /**
+     * Get the encoded NBT with the given key without decoding it, marking it as recently used.
+     * @param key The key of the entry.
+     * @return An Optional containing a read-only copy of the uncompressed NBT if the key is in the store. It is a copy
+     *         on the heap, since the off-heap buffer is recycled once the entry is removed.
+     */
+    public synchronized Optional<ByteBuffer> getEncoded(K key) {
+        Entry entry = lookup(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(entry.buffer.remaining());
+        copy.put(entry.buffer.duplicate());
+        copy.flip();
+        return Optional.of(copy.asReadOnlyBuffer());
+    }
+
+    private Entry lookup(K key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = writing.get(key);
+        }
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Check if the given key is in the store, without affecting its recency or the statistics.
+     * @param key The key of the entry.
+     * @return true if the key is in the store.
+     */
+    public synchronized boolean contains(K key) {
+        return entries.containsKey(key) || writing.containsKey(key);
+    }
+
+    /**
+     * Remove the entry with the given key without writing it back.
+     * @param key The key of the entry.
+     * @return true if the key was in the store.
+     */
+    public synchronized boolean invalidate(K key) {
+        // An evicted entry that is still being written back is no longer served, nor put back if that fails
+        boolean found = writing.remove(key) != null;
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return found;
+        }
+
+        sizeBytes -= entry.buffer.capacity();
+        release(entry);
+        return true;
+    }
+
+    /**
+     * Write back every modified entry, leaving them in the store, and wait for write-backs that other threads already
+     * started. The hook is called without holding the lock of the store.
+     * @throws IOException if an entry could not be written back.
+     */
+    public void flush() throws IOException {
+        List<Map.Entry<K, Entry>> dirty = new ArrayList<>();
+        List<Entry> inFlight = new ArrayList<>();
+        synchronized (this) {
+            inFlight.addAll(writing.values());
+            for (Map.Entry<K, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().writing) {
+                    inFlight.add(entry.getValue());
+                }
+                if (!entry.getValue().dirty) {
+                    continue;
+                }
+                if (writeBack == null) {
+                    entry.getValue().dirty = false;
+                } else {
+                    dirty.add(pin(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+
+        writeBack(dirty);
+
+        // Entries that other threads were already writing back are only persisted once they finish
+        synchronized (this) {
+            for (Entry entry : inFlight) {
+                while (entry.writing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for a write-back");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of entries in the store.
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of off-heap bytes used by the entries, including the rounding up to their size classes.
+     * @return The number of bytes.
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Get the maximum number of off-heap bytes used by the entries.
+     * @return The maximum number of bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the number of lookups that found their key.
+     * @return The number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that did not find their key.
+     * @return The number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of entries that were evicted to make room for others.
+     * @return The number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NBTStore{" +
+                "entries=" + entries.size() +
+                ", sizeBytes=" + sizeBytes +
+                ", maxBytes=" + maxBytes +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                "}";
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.mattrick.enbeet;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTCompoundTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Test
+    void keepsChangesToTheCloneFromTheTemplate() {
+        NBTCompound template = template();
+        NBTCompound clone = template.copyOnWrite();
+
+        clone.set(2, "small");
+        clone.set("y", "nested", "name");
+        clone.getIntArray("array").orElseThrow()[0] = 42;
+        clone.getList("list").orElseThrow().add(new NBTCompound());
+        clone.getList("list").orElseThrow().getCompound(0).orElseThrow().set(7, "value");
+        clone.remove("nested", "other");
+
+        assertUnchanged(template);
+        assertEquals(Optional.of(2), clone.getInt("small"));
+        assertEquals(Optional.of("y"), clone.getString("nested", "name"));
+        assertEquals(Optional.of(42), clone.getIntArray("array").map(array -> array[0]));
+        assertEquals(2, clone.getList("list").orElseThrow().size());
+        assertTrue(clone.get("nested", "other").isEmpty());
+    }
+
+    @Test
+    void keepsChangesToTheTemplateFromTheClone() {
+        NBTCompound template = template();
+        NBTCompound clone = template.copyOnWrite();
+
+        template.set(99, "n", "x");
+        template.set(2, "small");
+        template.set("y", "nested", "name");
+        template.getIntArray("array").orElseThrow()[0] = 42;
+        template.getList("list").orElseThrow().getCompound(0).orElseThrow().set(7, "value");
+        template.remove("nested", "other");
+        template.data().put("data", 1);
+
+        assertUnchanged(clone);
+    }
+
+    @Test
+    void isolatesClonesOfClones() {
+        NBTCompound template = template();
+        NBTCompound first = template.copyOnWrite();
+        first.set("first", "nested", "name");
+        NBTCompound second = first.copyOnWrite();
+
+        second.set("second", "nested", "name");
+        first.set("changed", "nested", "name");
+
+        assertEquals(Optional.of("x"), template.getString("nested", "name"));
+        assertEquals(Optional.of("changed"), first.getString("nested", "name"));
+        assertEquals(Optional.of("second"), second.getString("nested", "name"));
+    }
+
+    @Test
+    void copiesOnlyTheValuesThatAreAccessed() {
+        NBTCompound template = template();
+        long[] big = (long[]) template.view().get("big");
+        NBTCompound clone = template.copyOnWrite();
+
+        assertEquals(Optional.of(1), clone.getInt("small"));
+        clone.set(3, "nested", "name");
+        template.set(4, "nested", "name");
+        template.getInt("small");
+
+        // Neither side accessed the big array, so it is still shared
+        assertSame(big, clone.view().get("big"));
+        assertSame(big, template.view().get("big"));
+
+        assertNotSame(big, clone.getLongArray("big").orElseThrow());
+        assertNotSame(clone.view().get("big"), template.getLongArray("big").orElseThrow());
+    }
+
+    @Test
+    void isolatesTheBackingMapOfClones() {
+        NBTCompound template = template();
+        NBTCompound clone = template.copyOnWrite();
+
+        ((int[]) clone.data().get("array"))[0] = 42;
+        ((NBTCompound) clone.data().get("nested")).set("y", "name");
+        clone.data().remove("small");
+
+        assertUnchanged(template);
+        assertArrayEquals(new int[] {42, 2, 3}, clone.getIntArray("array").orElseThrow());
+    }
+
+    @Test
+    void clonesAndReadsTemplatesConcurrently() throws Exception {
+        NBTCompound template = template();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int id = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        assertEquals(Optional.of("x"), template.getString("nested", "name"));
+                        NBTCompound clone = template.copyOnWrite();
+                        clone.set(id, "nested", "name");
+                        clone.getIntArray("array").orElseThrow()[0] = id;
+                        assertEquals(Optional.of(id), clone.getInt("nested", "name"));
+                        assertEquals(Optional.of(id), clone.getIntArray("array").map(array -> array[0]));
+                    }
+                    return null;
+                }));
+            }
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        assertUnchanged(template);
+    }
+
+    @Test
+    void copiesDeeply() {
+        NBTCompound template = template();
+        NBTCompound copy = template.copy();
+
+        copy.set("y", "nested", "name");
+        copy.getIntArray("array").orElseThrow()[0] = 42;
+        copy.getList("list").orElseThrow().getCompound(0).orElseThrow().set(7, "value");
+
+        assertUnchanged(template);
+        assertNotSame(template.view().get("big"), copy.view().get("big"));
+    }
+
+    private static void assertUnchanged(NBTCompound compound) {
+        assertEquals(Set.of("small", "big", "array", "nested", "list"), compound.view().keySet());
+        assertEquals(Optional.of(1), compound.getInt("small"));
+        assertArrayEquals(new long[1024], compound.getLongArray("big").orElseThrow());
+        assertArrayEquals(new int[] {1, 2, 3}, compound.getIntArray("array").orElseThrow());
+        assertEquals(Set.of("name", "other"), compound.getCompound("nested").orElseThrow().view().keySet());
+        assertEquals(Optional.of("x"), compound.getString("nested", "name"));
+        assertEquals(1, compound.getList("list").orElseThrow().size());
+        assertTrue(compound.getList("list").orElseThrow().getCompound(0).orElseThrow().view().isEmpty());
+    }
+
+    private static NBTCompound template() {
+        NBTCompound compound = new NBTCompound();
+        compound.set(1, "small");
+        compound.set(new long[1024], "big");
+        compound.set(new int[] {1, 2, 3}, "array");
+        compound.set("x", "nested", "name");
+        compound.set("z", "nested", "other");
+        NBTList list = new NBTList(TagType.COMPOUND);
+        list.add(new NBTCompound());
+        compound.set(list, "list");
+        return compound;
+    }
+
+}
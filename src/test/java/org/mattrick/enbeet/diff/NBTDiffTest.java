@@ -0,0 +1,122 @@
+package org.mattrick.enbeet.diff;
+
+import org.junit.jupiter.api.Test;
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.NBTList;
+import org.mattrick.enbeet.TagType;
+import org.mattrick.enbeet.io.NBTException;
+import org.mattrick.enbeet.io.NBTLimits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTDiffTest {
+
+    @Test
+    void equalCompoundsHaveAnEmptyDelta() {
+        assertTrue(NBTDiff.diff(sample(), sample()).isEmpty());
+    }
+
+    @Test
+    void roundTripsThroughStream() throws IOException {
+        NBTCompound from = sample();
+        NBTCompound to = sample();
+        to.set(21, "Level", "xPos");
+        to.set("added", "Level", "Name");
+        to.data().remove("Removed");
+        to.getCompound("Level").orElseThrow().data().remove("Nested");
+        NBTList list = new NBTList(TagType.STRING);
+        list.add("changed");
+        to.set(list, "Tags");
+
+        NBTDelta delta = NBTDiff.diff(from, to);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        delta.write(out);
+        NBTDelta read = NBTDelta.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(delta.getChanges().size(), read.getChanges().size());
+        read.apply(from);
+        assertTrue(NBTDiff.valueEquals(to, from));
+    }
+
+    @Test
+    void appliesArrayRangesWithoutModifyingTheSource() throws IOException {
+        long[] original = new long[4096];
+        long[] changed = Arrays.copyOf(original, 5000);
+        for (int i = 0; i < changed.length; i += 100) {
+            changed[i] = i + 1;
+        }
+
+        NBTCompound from = new NBTCompound();
+        from.set(original, "Heightmap");
+        NBTCompound to = new NBTCompound();
+        to.set(changed, "Heightmap");
+
+        NBTDelta delta = NBTDiff.diff(from, to);
+        assertTrue(delta.getChanges().stream().allMatch(change -> change.getOperation() == NBTDelta.Operation.RANGE));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        delta.write(out);
+        NBTDelta.read(new ByteArrayInputStream(out.toByteArray())).apply(from);
+
+        assertArrayEquals(changed, from.getLongArray("Heightmap").orElseThrow());
+        assertEquals(0, original[100]);
+    }
+
+    @Test
+    void detachesAppliedValuesFromTheUpdatedCompound() {
+        NBTCompound template = sample();
+        template.set(new int[] {4, 5}, "Added", "Sections");
+        NBTCompound to = template.copyOnWrite();
+        to.set("changed", "Removed");
+
+        NBTCompound target = new NBTCompound();
+        NBTDiff.diff(target, to).apply(target);
+        target.getIntArray("Added", "Sections").orElseThrow()[0] = 42;
+        target.getList("Tags").orElseThrow().add("added");
+        target.set(0, "Level", "xPos");
+
+        NBTCompound unchanged = template.copy();
+        unchanged.remove("Added");
+        assertTrue(NBTDiff.valueEquals(sample(), unchanged));
+        assertArrayEquals(new int[] {4, 5}, template.getIntArray("Added", "Sections").orElseThrow());
+        assertArrayEquals(new int[] {4, 5}, to.getIntArray("Added", "Sections").orElseThrow());
+        assertEquals(1, to.getList("Tags").orElseThrow().size());
+        assertEquals(Optional.of(20), to.getInt("Level", "xPos"));
+    }
+
+    @Test
+    void readsWithLimits() throws IOException {
+        NBTCompound to = new NBTCompound();
+        to.set(new long[1024], "Heightmap");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTDiff.diff(new NBTCompound(), to).write(out);
+
+        assertThrows(NBTException.class, () ->
+                NBTDelta.read(new ByteArrayInputStream(out.toByteArray()), new NBTLimits(1024, 16, 1 << 16)));
+    }
+
+    private static NBTCompound sample() {
+        NBTCompound compound = new NBTCompound();
+        compound.set(20, "Level", "xPos");
+        compound.set(-4, "Level", "zPos");
+        compound.set(1.5, "Level", "Nested", "value");
+        compound.set(new int[] {1, 2, 3}, "Level", "Sections");
+        compound.set("bye", "Removed");
+
+        NBTList list = new NBTList(TagType.STRING);
+        list.add("original");
+        compound.set(list, "Tags");
+        return compound;
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.mattrick.enbeet.io;
+
+import org.junit.jupiter.api.Test;
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.TagType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTLimitsTest {
+
+    private static final NBTLimits LIMITS = new NBTLimits(16 << 20, 64, 1 << 22);
+
+    @Test
+    void chargesEmptyCompoundsAgainstTheByteLimit() throws IOException {
+        // 2 MB of empty compounds, which take well over 100 MB of heap once decoded
+        byte[] bytes = listOfEmptyCompounds(2_000_000);
+        NBTSchema schema = new NBTSchema().list("list", new NBTSchema());
+
+        assertRejectedByEveryRead(bytes, LIMITS, schema, new String[] {"list"});
+    }
+
+    @Test
+    void readsEmptyCompoundsWithinTheByteLimit() throws IOException {
+        byte[] bytes = listOfEmptyCompounds(1000);
+        NBTSchema schema = new NBTSchema().list("list", new NBTSchema());
+
+        assertEquals(1000, reader(bytes, LIMITS).read().getList("list").orElseThrow().size());
+        assertEquals(1000, reader(bytes, LIMITS).read(schema).getList("list").orElseThrow().size());
+        assertEquals(1000, reader(bytes, LIMITS).read(new String[] {"list"}).getList("list").orElseThrow().size());
+    }
+
+    @Test
+    void chargesStringsAgainstTheByteLimit() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = root(bytes);
+        out.writeByte(TagType.LIST.getId());
+        out.writeUTF("list");
+        out.writeByte(TagType.STRING.getId());
+        out.writeInt(100_000);
+        for (int i = 0; i < 100_000; i++) {
+            out.writeUTF("");
+        }
+        out.writeByte(TagType.END.getId());
+
+        NBTLimits limits = new NBTLimits(1 << 20, 64, 1 << 20);
+        NBTSchema schema = new NBTSchema().field("list", TagType.LIST);
+        assertRejectedByEveryRead(bytes.toByteArray(), limits, schema, new String[] {"list"});
+    }
+
+    @Test
+    void enforcesTheDepthLimit() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = root(bytes);
+        for (int i = 0; i < 100; i++) {
+            out.writeByte(TagType.COMPOUND.getId());
+            out.writeUTF("a");
+        }
+        for (int i = 0; i < 100; i++) {
+            out.writeByte(TagType.END.getId());
+        }
+        out.writeByte(TagType.END.getId());
+
+        String[] deepest = new String[100];
+        Arrays.fill(deepest, "a");
+        NBTSchema schema = new NBTSchema().field("a", TagType.COMPOUND);
+        assertRejectedByEveryRead(bytes.toByteArray(), LIMITS, schema, deepest);
+        // Values that are skipped are held to the depth limit as well
+        assertThrows(NBTException.class, () -> reader(bytes.toByteArray(), LIMITS).read(new String[] {"b"}));
+    }
+
+    @Test
+    void enforcesTheLengthLimit() throws IOException {
+        NBTLimits limits = new NBTLimits(1 << 30, 64, 1000);
+
+        ByteArrayOutputStream array = new ByteArrayOutputStream();
+        DataOutputStream out = root(array);
+        out.writeByte(TagType.INT_ARRAY.getId());
+        out.writeUTF("array");
+        out.writeInt(1001);
+        out.write(new byte[1001 * Integer.BYTES]);
+        out.writeByte(TagType.END.getId());
+
+        NBTSchema schema = new NBTSchema().field("array", TagType.INT_ARRAY);
+        assertRejectedByEveryRead(array.toByteArray(), limits, schema, new String[] {"array"});
+        assertThrows(NBTException.class, () -> reader(array.toByteArray(), limits).read(new String[] {"other"}));
+
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        out = root(list);
+        out.writeByte(TagType.LIST.getId());
+        out.writeUTF("list");
+        out.writeByte(TagType.INT.getId());
+        out.writeInt(1001);
+        out.write(new byte[1001 * Integer.BYTES]);
+        out.writeByte(TagType.END.getId());
+
+        schema = new NBTSchema().field("list", TagType.LIST);
+        assertRejectedByEveryRead(list.toByteArray(), limits, schema, new String[] {"list"});
+        assertThrows(NBTException.class, () -> reader(list.toByteArray(), limits).read(new String[] {"other"}));
+    }
+
+    @Test
+    void rejectsListsOfEndElements() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = root(bytes);
+        out.writeByte(TagType.LIST.getId());
+        out.writeUTF("list");
+        out.writeByte(TagType.END.getId());
+        out.writeInt(Integer.MAX_VALUE);
+        out.writeByte(TagType.END.getId());
+
+        NBTSchema schema = new NBTSchema().field("list", TagType.LIST);
+        assertRejectedByEveryRead(bytes.toByteArray(), NBTLimits.UNLIMITED, schema, new String[] {"list"});
+        assertThrows(NBTException.class,
+                () -> reader(bytes.toByteArray(), NBTLimits.UNLIMITED).read(new String[] {"other"}));
+    }
+
+    @Test
+    void readsWithinEveryLimit() throws IOException {
+        NBTCompound compound = new NBTCompound();
+        compound.set(new int[1000], "array");
+        compound.set(1, "a", "b", "c");
+        compound.set("value", "name");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NBTWriter writer = new NBTWriter(bytes, false);
+        writer.write(compound);
+        writer.finish();
+
+        NBTLimits limits = new NBTLimits(1 << 20, 4, 1000);
+        NBTSchema schema = new NBTSchema().field("array", TagType.INT_ARRAY).field("name", TagType.STRING);
+        assertTrue(reader(bytes.toByteArray(), limits).read().getIntArray("array").isPresent());
+        assertEquals(Optional.of(1), reader(bytes.toByteArray(), limits).read(schema).getInt("a", "b", "c"));
+        assertEquals(Optional.of("value"), reader(bytes.toByteArray(), limits).read(new String[] {"name"})
+                .getString("name"));
+    }
+
+    private static void assertRejectedByEveryRead(byte[] bytes, NBTLimits limits, NBTSchema schema, String[] path) {
+        assertThrows(NBTException.class, () -> reader(bytes, limits).read());
+        assertThrows(NBTException.class, () -> reader(bytes, limits).read(schema));
+        assertThrows(NBTException.class, () -> reader(bytes, limits).read(path));
+    }
+
+    private static NBTReader reader(byte[] bytes, NBTLimits limits) throws IOException {
+        return new NBTReader(new ByteArrayInputStream(bytes), limits);
+    }
+
+    private static DataOutputStream root(ByteArrayOutputStream bytes) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TagType.COMPOUND.getId());
+        out.writeUTF("");
+        return out;
+    }
+
+    private static byte[] listOfEmptyCompounds(int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = root(bytes);
+        out.writeByte(TagType.LIST.getId());
+        out.writeUTF("list");
+        out.writeByte(TagType.COMPOUND.getId());
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeByte(TagType.END.getId());
+        }
+        out.writeByte(TagType.END.getId());
+        return bytes.toByteArray();
+    }
+
+}
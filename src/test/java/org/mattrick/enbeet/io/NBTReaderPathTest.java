@@ -0,0 +1,121 @@
+package org.mattrick.enbeet.io;
+
+import org.junit.jupiter.api.Test;
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.TagType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTReaderPathTest {
+
+    @Test
+    void readsOnlyTheGivenPaths() throws IOException {
+        NBTCompound read = reader(sample()).read(new String[] {"Level", "xPos"}, new String[] {"Name"});
+
+        assertEquals(Optional.of(20), read.getInt("Level", "xPos"));
+        assertEquals(Optional.of("sample"), read.getString("Name"));
+        assertTrue(read.get("Level", "zPos").isEmpty());
+        assertTrue(read.get("Level", "Sections").isEmpty());
+        assertTrue(read.get("Tail").isEmpty());
+    }
+
+    @Test
+    void readsWholeCompoundsAtShorterPaths() throws IOException {
+        NBTCompound read = reader(sample()).read(new String[] {"Level"});
+
+        assertEquals(Optional.of(20), read.getInt("Level", "xPos"));
+        assertEquals(Optional.of(-4), read.getInt("Level", "zPos"));
+        assertArrayEquals(new int[] {1, 2, 3}, read.getIntArray("Level", "Sections").orElseThrow());
+        assertTrue(read.get("Name").isEmpty());
+    }
+
+    @Test
+    void leavesOutMissingPaths() throws IOException {
+        NBTCompound read = reader(sample()).read(new String[] {"Missing"}, new String[] {"Name", "Nested"},
+                new String[] {"Level", "xPos"});
+
+        assertTrue(read.get("Missing").isEmpty());
+        // Name is a string, so it cannot contain the path
+        assertTrue(read.get("Name").isEmpty());
+        assertEquals(Optional.of(20), read.getInt("Level", "xPos"));
+    }
+
+    @Test
+    void stopsReadingOnceEveryPathWasFound() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TagType.COMPOUND.getId());
+        out.writeUTF("");
+        out.writeByte(TagType.INT.getId());
+        out.writeUTF("found");
+        out.writeInt(1);
+        // Never reached, since reading stops at the last path
+        out.writeByte(99);
+
+        assertEquals(Optional.of(1), reader(bytes.toByteArray()).read(new String[] {"found"}).getInt("found"));
+        assertThrows(NBTException.class, () -> reader(bytes.toByteArray()).read());
+    }
+
+    @Test
+    void passesEveryValueToTheVisitor() throws IOException {
+        List<String> visited = new ArrayList<>();
+        NBTCompound read = reader(sample()).read((path, value) -> {
+            visited.add(String.join(".", path) + "=" + value);
+            return true;
+        }, new String[] {"Level", "xPos"}, new String[] {"Level", "zPos"}, new String[] {"Name"});
+
+        // Values are visited in the order they are stored in
+        assertEquals(Set.of("Level.xPos=20", "Level.zPos=-4", "Name=sample"), new HashSet<>(visited));
+        assertEquals(3, visited.size());
+        assertEquals(Optional.of("sample"), read.getString("Name"));
+    }
+
+    @Test
+    void stopsWhenTheVisitorReturnsFalse() throws IOException {
+        List<String[]> visited = new ArrayList<>();
+        NBTCompound read = reader(sample()).read((path, value) -> {
+            visited.add(path);
+            return false;
+        }, new String[] {"Level", "xPos"}, new String[] {"Name"});
+
+        // Only the first value that was found is read
+        assertEquals(1, visited.size());
+        String[] first = visited.get(0);
+        String[] other = first.length == 1 ? new String[] {"Level", "xPos"} : new String[] {"Name"};
+        assertTrue(read.get(first).isPresent());
+        assertTrue(read.get(other).isEmpty());
+    }
+
+    private static NBTReader reader(byte[] bytes) throws IOException {
+        return new NBTReader(new ByteArrayInputStream(bytes));
+    }
+
+    private static byte[] sample() throws IOException {
+        NBTCompound compound = new NBTCompound();
+        compound.set(20, "Level", "xPos");
+        compound.set(-4, "Level", "zPos");
+        compound.set(new int[] {1, 2, 3}, "Level", "Sections");
+        compound.set("sample", "Name");
+        compound.set(new long[64], "Tail");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTWriter writer = new NBTWriter(out);
+        writer.write(compound);
+        writer.finish();
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,307 @@
+package org.mattrick.enbeet.io;
+
+import org.junit.jupiter.api.Test;
+import org.mattrick.enbeet.NBTCompound;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTRecordReaderTest {
+
+    private static final int RECORDS = 5000;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Test
+    void readsConcatenatedRecordsInOrder() throws IOException {
+        assertInOrder(new NBTRecordReader(new ByteArrayInputStream(concatenated(RECORDS)),
+                NBTRecordReader.Framing.CONCATENATED, NBTLimits.UNLIMITED, 4));
+    }
+
+    @Test
+    void readsLengthPrefixedRecordsInOrder() throws IOException {
+        assertInOrder(new NBTRecordReader(new ByteArrayInputStream(lengthPrefixed(RECORDS, false)),
+                NBTRecordReader.Framing.LENGTH_PREFIXED, NBTLimits.UNLIMITED, 4));
+    }
+
+    @Test
+    void readsGzippedRecordsInOrder() throws IOException {
+        assertInOrder(new NBTRecordReader(new ByteArrayInputStream(gzip(concatenated(RECORDS))),
+                NBTRecordReader.Framing.CONCATENATED, NBTLimits.UNLIMITED, 4));
+        assertInOrder(new NBTRecordReader(new ByteArrayInputStream(lengthPrefixed(RECORDS, true)),
+                NBTRecordReader.Framing.LENGTH_PREFIXED, NBTLimits.UNLIMITED, 4));
+    }
+
+    @Test
+    void readsEmptyStream() {
+        NBTRecordReader reader = new NBTRecordReader(new ByteArrayInputStream(new byte[0]),
+                NBTRecordReader.Framing.CONCATENATED);
+        assertTimeoutPreemptively(TIMEOUT, () -> assertFalse(reader.hasNext()));
+    }
+
+    @Test
+    void failsOnTruncatedRecord() throws IOException {
+        byte[] bytes = concatenated(10);
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 3);
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            NBTRecordReader reader = new NBTRecordReader(new ByteArrayInputStream(truncated),
+                    NBTRecordReader.Framing.CONCATENATED);
+            for (int i = 0; i < 9; i++) {
+                assertEquals(Optional.of(i), reader.next().getInt("index"));
+            }
+            assertThrows(UncheckedIOException.class, reader::next);
+            assertFalse(reader.hasNext());
+        });
+    }
+
+    @Test
+    void failsOnOversizedConcatenatedRecord() throws IOException {
+        // A single byte array claiming to be 2 GiB long, followed by endless filler
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeByte(10);
+        out.writeUTF("");
+        out.writeByte(7);
+        out.writeUTF("a");
+        out.writeInt(Integer.MAX_VALUE);
+
+        assertFailsWhileFraming(new EndlessInputStream(header.toByteArray(), new byte[] {0}));
+    }
+
+    @Test
+    void failsOnRecordLargerThanItsLimitWhileFraming() throws IOException {
+        // Every length is within the limits, but the compound never ends
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeByte(10);
+        out.writeUTF("");
+
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        out = new DataOutputStream(entry);
+        out.writeByte(7);
+        out.writeUTF("a");
+        out.writeInt(1024);
+        out.write(new byte[1024]);
+
+        assertFailsWhileFraming(new EndlessInputStream(header.toByteArray(), entry.toByteArray()));
+    }
+
+    private static void assertFailsWhileFraming(InputStream in) {
+        NBTLimits limits = new NBTLimits(1 << 20, 64, 1 << 20);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            NBTRecordReader reader = new NBTRecordReader(in, NBTRecordReader.Framing.CONCATENATED, limits, 2);
+            UncheckedIOException e = assertThrows(UncheckedIOException.class, reader::next);
+            assertTrue(e.getCause() instanceof NBTException);
+            assertFalse(reader.hasNext());
+        });
+    }
+
+    @Test
+    void failsOnInvalidLengthPrefix() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(lengthPrefixed(3, false));
+        new DataOutputStream(bytes).writeInt(-5);
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            NBTRecordReader reader = new NBTRecordReader(new ByteArrayInputStream(bytes.toByteArray()),
+                    NBTRecordReader.Framing.LENGTH_PREFIXED);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Optional.of(i), reader.next().getInt("index"));
+            }
+            assertThrows(UncheckedIOException.class, reader::next);
+            assertFalse(reader.hasNext());
+        });
+    }
+
+    @Test
+    void failsOnUndecodableRecordInOrder() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(lengthPrefixed(2, false));
+        // Framed correctly, but not a compound
+        out.writeInt(3);
+        out.write(new byte[] {8, 0, 0});
+        out.write(lengthPrefixed(2, false));
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            NBTRecordReader reader = new NBTRecordReader(new ByteArrayInputStream(bytes.toByteArray()),
+                    NBTRecordReader.Framing.LENGTH_PREFIXED);
+            assertEquals(Optional.of(0), reader.next().getInt("index"));
+            assertEquals(Optional.of(1), reader.next().getInt("index"));
+            assertThrows(UncheckedIOException.class, reader::next);
+            assertFalse(reader.hasNext());
+        });
+    }
+
+    @Test
+    void failsOnCorruptGzip() throws IOException {
+        byte[] bytes = gzip(concatenated(100));
+        // Cut off the deflated data and the trailer
+        byte[] corrupt = Arrays.copyOf(bytes, bytes.length / 2);
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            NBTRecordReader reader = new NBTRecordReader(new ByteArrayInputStream(corrupt),
+                    NBTRecordReader.Framing.CONCATENATED);
+            assertThrows(UncheckedIOException.class, () -> {
+                while (reader.hasNext()) {
+                    reader.next();
+                }
+            });
+        });
+    }
+
+    @Test
+    void closingFromAnotherThreadWakesTheConsumer() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        // Blocks until the end of the test, and ignores interrupts like a stalled socket
+        InputStream stalled = new InputStream() {
+            @Override
+            public int read() {
+                while (true) {
+                    try {
+                        release.await();
+                        return -1;
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            NBTRecordReader reader = new NBTRecordReader(stalled, NBTRecordReader.Framing.CONCATENATED,
+                    NBTLimits.UNLIMITED, 1);
+            Future<Boolean> hasNext = executor.submit(reader::hasNext);
+            Thread.sleep(100);
+
+            reader.close();
+            assertTimeoutPreemptively(TIMEOUT, () -> assertFalse(hasNext.get()));
+            assertFalse(reader.hasNext());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void endsTheRecordsOnceClosed() throws IOException {
+        NBTRecordReader reader = new NBTRecordReader(new ByteArrayInputStream(concatenated(RECORDS)),
+                NBTRecordReader.Framing.CONCATENATED, NBTLimits.UNLIMITED, 1);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(Optional.of(0), reader.next().getInt("index"));
+            reader.close();
+            assertFalse(reader.hasNext());
+        });
+    }
+
+    private static void assertInOrder(NBTRecordReader reader) {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            List<Integer> indices;
+            try (reader) {
+                indices = reader.stream()
+                        .map(compound -> compound.getInt("index").orElseThrow())
+                        .collect(Collectors.toList());
+            }
+
+            assertEquals(RECORDS, indices.size());
+            for (int i = 0; i < RECORDS; i++) {
+                assertEquals(i, (int) indices.get(i));
+            }
+        });
+    }
+
+    /**
+     * Returns a header, followed by a pattern repeated forever.
+     */
+    private static class EndlessInputStream extends InputStream {
+
+        private final byte[] header;
+        private final byte[] pattern;
+        private long position;
+
+        private EndlessInputStream(byte[] header, byte[] pattern) {
+            this.header = header;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public int read() {
+            int value = position < header.length
+                    ? header[(int) position]
+                    : pattern[(int) ((position - header.length) % pattern.length)];
+            position++;
+            return value & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            for (int i = 0; i < len; i++) {
+                b[off + i] = (byte) read();
+            }
+            return len;
+        }
+
+    }
+
+    private static NBTCompound record(int index) {
+        NBTCompound compound = new NBTCompound();
+        compound.set(index, "index");
+        // Records of different sizes take different times to decode, so they complete out of order
+        compound.set(new long[index % 97 * 10], "payload");
+        compound.set("record " + index, "name");
+        return compound;
+    }
+
+    private static byte[] concatenated(int count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTWriter writer = new NBTWriter(out, false);
+        for (int i = 0; i < count; i++) {
+            writer.write(record(i));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] lengthPrefixed(int count, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        for (int i = 0; i < count; i++) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            NBTWriter writer = new NBTWriter(record, gzip);
+            writer.write(record(i));
+            writer.finish();
+
+            data.writeInt(record.size());
+            record.writeTo(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+}
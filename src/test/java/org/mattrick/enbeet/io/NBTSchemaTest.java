@@ -0,0 +1,294 @@
+package org.mattrick.enbeet.io;
+
+import org.junit.jupiter.api.Test;
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.NBTList;
+import org.mattrick.enbeet.TagType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTSchemaTest {
+
+    private static final NBTSchema TAG = new NBTSchema()
+            .field("Damage", TagType.INT)
+            .field("Größe", TagType.DOUBLE);
+    private static final NBTSchema ITEM = new NBTSchema()
+            .field("id", TagType.STRING)
+            .field("Count", TagType.BYTE)
+            .compound("tag", TAG)
+            .field("名前", TagType.STRING)
+            .field("Slots", TagType.INT_ARRAY);
+    private static final NBTSchema ROOT = new NBTSchema()
+            .list("Items", ITEM)
+            .field("DataVersion", TagType.INT)
+            .compound("tag", TAG);
+
+    private static final String[] KEYS = {
+            "id", "Count", "tag", "Damage", "Größe", "名前", "Slots", "Items", "DataVersion", "unknown", "ключ"
+    };
+
+    @Test
+    void readsReorderedKeys() throws IOException {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("Slots", new int[] {1, 2});
+        item.put("名前", "Schwert");
+        item.put("Count", (byte) 3);
+        item.put("id", "minecraft:sword");
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("DataVersion", 3465);
+        root.put("Items", new RawList(TagType.COMPOUND, List.of(item, item)));
+
+        NBTCompound read = assertSameAsGenericRead(root);
+        assertEquals("Schwert", read.getList("Items").orElseThrow().getCompound(1).orElseThrow()
+                .getString("名前").orElseThrow());
+    }
+
+    @Test
+    void readsUnknownKeys() throws IOException {
+        Map<String, Object> tag = new LinkedHashMap<>();
+        tag.put("Damage", 5);
+        tag.put("ключ", "значение");
+        tag.put("Enchantments", new RawList(TagType.STRING, List.of("sharpness")));
+
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("id", "minecraft:sword");
+        item.put("extra", 1L);
+        item.put("tag", tag);
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("Items", new RawList(TagType.COMPOUND, List.of(item)));
+        root.put("Ünknown", new long[] {1, 2, 3});
+
+        assertSameAsGenericRead(root);
+    }
+
+    @Test
+    void readsMistypedFields() throws IOException {
+        Map<String, Object> item = new LinkedHashMap<>();
+        // Every field is of another type than in the schema
+        item.put("id", 7);
+        item.put("Count", "three");
+        item.put("tag", new RawList(TagType.INT, List.of(1, 2)));
+        item.put("Slots", new long[] {1});
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("Items", new RawList(TagType.STRING, List.of("not", "compounds")));
+        root.put("DataVersion", (short) 1);
+        root.put("tag", item);
+
+        assertSameAsGenericRead(root);
+    }
+
+    @Test
+    void readsMissingFieldsAndEmptyLists() throws IOException {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("Items", new RawList(TagType.END, List.of()));
+        root.put("tag", new LinkedHashMap<>());
+
+        assertSameAsGenericRead(root);
+        assertSameAsGenericRead(new LinkedHashMap<>());
+    }
+
+    @Test
+    void readsRandomCompoundsLikeTheGenericRead() throws IOException {
+        Random random = new Random(31);
+        for (int i = 0; i < 500; i++) {
+            assertSameAsGenericRead(randomCompound(random, 0));
+        }
+    }
+
+    private static NBTCompound assertSameAsGenericRead(Map<String, Object> root) throws IOException {
+        byte[] bytes = encode(root);
+        NBTCompound generic = new NBTReader(new ByteArrayInputStream(bytes)).read();
+        NBTCompound schema = new NBTReader(new ByteArrayInputStream(bytes)).read(ROOT);
+
+        assertTrue(valueEquals(generic, schema), () -> generic + " != " + schema);
+        return schema;
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a instanceof NBTCompound compoundA && b instanceof NBTCompound compoundB) {
+            Map<String, Object> dataA = compoundA.data();
+            Map<String, Object> dataB = compoundB.data();
+            if (!dataA.keySet().equals(dataB.keySet())) {
+                return false;
+            }
+            for (Map.Entry<String, Object> entry : dataA.entrySet()) {
+                if (!valueEquals(entry.getValue(), dataB.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof NBTList listA && b instanceof NBTList listB) {
+            if (listA.getType() != listB.getType() || listA.size() != listB.size()) {
+                return false;
+            }
+            for (int i = 0; i < listA.size(); i++) {
+                if (!valueEquals(listA.get(i).orElse(null), listB.get(i).orElse(null))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof byte[] arrayA && b instanceof byte[] arrayB) {
+            return Arrays.equals(arrayA, arrayB);
+        }
+        if (a instanceof int[] arrayA && b instanceof int[] arrayB) {
+            return Arrays.equals(arrayA, arrayB);
+        }
+        if (a instanceof long[] arrayA && b instanceof long[] arrayB) {
+            return Arrays.equals(arrayA, arrayB);
+        }
+        return a != null && a.equals(b) && a.getClass() == b.getClass();
+    }
+
+    private static Map<String, Object> randomCompound(Random random, int depth) {
+        List<String> keys = new ArrayList<>(Arrays.asList(KEYS));
+        Collections.shuffle(keys, random);
+
+        Map<String, Object> compound = new LinkedHashMap<>();
+        for (String key : keys.subList(0, random.nextInt(keys.size()))) {
+            compound.put(key, randomValue(random, key, depth));
+        }
+        return compound;
+    }
+
+    private static Object randomValue(Random random, String key, int depth) {
+        // Mostly the type the schema expects for the key, so the fast path is taken as well
+        boolean expected = random.nextInt(4) > 0;
+        if (depth < 3 && (key.equals("tag") && expected || random.nextInt(10) == 0)) {
+            return randomCompound(random, depth + 1);
+        }
+        if (depth < 3 && key.equals("Items") && expected) {
+            List<Object> items = new ArrayList<>();
+            for (int i = random.nextInt(4); i > 0; i--) {
+                items.add(randomCompound(random, depth + 1));
+            }
+            return new RawList(items.isEmpty() ? TagType.END : TagType.COMPOUND, items);
+        }
+        if (expected) {
+            switch (key) {
+                case "id", "名前":
+                    return "value" + random.nextInt(100);
+                case "Count":
+                    return (byte) random.nextInt();
+                case "Damage", "DataVersion":
+                    return random.nextInt();
+                case "Größe":
+                    return random.nextDouble();
+                case "Slots":
+                    return random.ints(random.nextInt(5)).toArray();
+                default:
+                    break;
+            }
+        }
+        return switch (random.nextInt(6)) {
+            case 0 -> (short) random.nextInt();
+            case 1 -> random.nextLong();
+            case 2 -> random.nextFloat();
+            case 3 -> new byte[random.nextInt(5)];
+            case 4 -> new RawList(TagType.INT, List.of(random.nextInt(), random.nextInt()));
+            default -> "ünïcödé " + random.nextInt(10);
+        };
+    }
+
+    /**
+     * A list to encode, since an NBTList can only hold decoded values.
+     */
+    private static class RawList {
+
+        private final TagType type;
+        private final List<Object> elements;
+
+        private RawList(TagType type, List<Object> elements) {
+            this.type = type;
+            this.elements = elements;
+        }
+
+    }
+
+    /**
+     * Encode a compound with its keys in the given order, which an NBTWriter does not preserve.
+     */
+    private static byte[] encode(Map<String, Object> root) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TagType.COMPOUND.getId());
+        out.writeUTF("");
+        writePayload(out, root);
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writePayload(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Map<?, ?> compound) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) compound).entrySet()) {
+                out.writeByte(typeOf(entry.getValue()).getId());
+                out.writeUTF(entry.getKey());
+                writePayload(out, entry.getValue());
+            }
+            out.writeByte(TagType.END.getId());
+        } else if (value instanceof RawList list) {
+            out.writeByte(list.type.getId());
+            out.writeInt(list.elements.size());
+            for (Object element : list.elements) {
+                writePayload(out, element);
+            }
+        } else if (value instanceof Byte b) {
+            out.writeByte(b);
+        } else if (value instanceof Short s) {
+            out.writeShort(s);
+        } else if (value instanceof Integer i) {
+            out.writeInt(i);
+        } else if (value instanceof Long l) {
+            out.writeLong(l);
+        } else if (value instanceof Float f) {
+            out.writeFloat(f);
+        } else if (value instanceof Double d) {
+            out.writeDouble(d);
+        } else if (value instanceof String s) {
+            out.writeUTF(s);
+        } else if (value instanceof byte[] array) {
+            out.writeInt(array.length);
+            out.write(array);
+        } else if (value instanceof int[] array) {
+            out.writeInt(array.length);
+            for (int element : array) {
+                out.writeInt(element);
+            }
+        } else if (value instanceof long[] array) {
+            out.writeInt(array.length);
+            for (long element : array) {
+                out.writeLong(element);
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot encode " + value);
+        }
+    }
+
+    private static TagType typeOf(Object value) {
+        if (value instanceof Map) {
+            return TagType.COMPOUND;
+        }
+        if (value instanceof RawList) {
+            return TagType.LIST;
+        }
+        return TagType.from(value.getClass());
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.mattrick.enbeet.io;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+import org.mattrick.enbeet.NBTCompound;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTWriterTest {
+
+    private static final int COMPOUNDS = 1000;
+
+    @Test
+    void listenerDoesNotChangeOutput() throws IOException {
+        List<NBTStats> stats = new ArrayList<>();
+        byte[] plain = write(true, null);
+        byte[] instrumented = write(true, collect(stats));
+
+        assertArrayEquals(plain, instrumented);
+        assertEquals(COMPOUNDS, stats.size());
+
+        // The deflater holds some bytes back until finish(), but never emits more than the output
+        long compressed = stats.stream().mapToLong(NBTStats::getCompressedBytes).sum();
+        assertTrue(compressed <= instrumented.length);
+    }
+
+    @Test
+    void listenerCountsUncompressedBytes() throws IOException {
+        List<NBTStats> stats = new ArrayList<>();
+        byte[] bytes = write(false, collect(stats));
+
+        assertEquals(bytes.length, stats.stream().mapToLong(NBTStats::getRawBytes).sum());
+        assertEquals(bytes.length, stats.stream().mapToLong(NBTStats::getCompressedBytes).sum());
+    }
+
+    @Test
+    void recordingDoesNotChangeOutput() throws IOException, ParseException {
+        byte[] plain = write(true, null);
+
+        try (Recording recording = new Recording(Configuration.getConfiguration("default"))) {
+            recording.start();
+            assertFalse(new NBTWriteEvent().isEnabled());
+            assertArrayEquals(plain, write(true, null));
+
+            recording.enable(NBTWriteEvent.class);
+            assertTrue(new NBTWriteEvent().isEnabled());
+            assertArrayEquals(plain, write(true, null));
+        }
+    }
+
+    private static NBTListener collect(List<NBTStats> stats) {
+        return new NBTListener() {
+            @Override
+            public void onWrite(NBTStats written) {
+                stats.add(written);
+            }
+        };
+    }
+
+    private static byte[] write(boolean gzip, NBTListener listener) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTWriter writer = new NBTWriter(out, gzip, listener);
+        for (int i = 0; i < COMPOUNDS; i++) {
+            NBTCompound compound = new NBTCompound();
+            compound.set(i, "index");
+            compound.set("compound " + i, "name");
+            writer.write(compound);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+}
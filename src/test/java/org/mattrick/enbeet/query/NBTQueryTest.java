@@ -0,0 +1,174 @@
+package org.mattrick.enbeet.query;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.NBTList;
+import org.mattrick.enbeet.TagType;
+import org.mattrick.enbeet.io.NBTWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTQueryTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void projectsMatchingStreams() throws IOException {
+        NBTQuery query = new NBTQuery()
+                .where(Integer.class, x -> x > 10, "Level", "xPos")
+                .select("Level", "zPos")
+                .select("Name");
+
+        Optional<NBTCompound> result = query.query(new ByteArrayInputStream(encode(chunk(20, "match"))));
+        assertEquals(Optional.of(20), result.orElseThrow().getInt("Level", "zPos"));
+        assertEquals(Optional.of("match"), result.orElseThrow().getString("Name"));
+        // Only the selected paths are returned
+        assertTrue(result.orElseThrow().get("Level", "xPos").isEmpty());
+
+        assertTrue(query.query(new ByteArrayInputStream(encode(chunk(5, "other")))).isEmpty());
+    }
+
+    @Test
+    void failsConditionsOnMissingOrMistypedValues() throws IOException {
+        byte[] bytes = encode(chunk(20, "chunk"));
+
+        assertTrue(new NBTQuery().where(value -> true, "Missing").query(new ByteArrayInputStream(bytes)).isEmpty());
+        assertTrue(new NBTQuery().where(String.class, value -> true, "Level", "xPos")
+                .query(new ByteArrayInputStream(bytes)).isEmpty());
+        assertTrue(new NBTQuery().where(value -> true, "Name", "Nested").query(new ByteArrayInputStream(bytes))
+                .isEmpty());
+    }
+
+    @Test
+    void checksConditionsInsideSelectedCompounds() throws IOException {
+        NBTQuery query = new NBTQuery()
+                .where(Integer.class, x -> x == 20, "Level", "xPos")
+                .select("Level");
+
+        NBTCompound result = query.query(new ByteArrayInputStream(encode(chunk(20, "chunk")))).orElseThrow();
+        assertEquals(Optional.of(20), result.getInt("Level", "xPos"));
+        assertEquals(1, result.getList("Level", "Entities").orElseThrow().size());
+    }
+
+    @Test
+    void scansEveryMatchingFile() throws IOException {
+        for (int i = 0; i < 40; i++) {
+            Path file = directory.resolve("region" + i % 4).resolve(i + ".dat");
+            Files.createDirectories(file.getParent());
+            Files.write(file, encode(chunk(i, "chunk" + i)));
+        }
+        Files.write(directory.resolve("session.lock"), new byte[] {1, 2, 3});
+
+        NBTQuery query = new NBTQuery()
+                .where(Integer.class, x -> x % 2 == 0, "Level", "xPos")
+                .select("Name")
+                .files(file -> file.toString().endsWith(".dat"))
+                .parallelism(3);
+
+        Set<String> names;
+        try (Stream<NBTQuery.Result> results = query.scan(directory)) {
+            names = results.map(result -> result.getCompound().getString("Name").orElseThrow())
+                    .collect(Collectors.toSet());
+        }
+
+        assertEquals(20, names.size());
+        for (int i = 0; i < 40; i += 2) {
+            assertTrue(names.contains("chunk" + i));
+        }
+    }
+
+    @Test
+    void passesUnreadableFilesToTheErrorHandler() throws IOException {
+        Files.write(directory.resolve("good.dat"), encode(chunk(1, "good")));
+        Files.write(directory.resolve("truncated.dat"), new byte[] {10, 0});
+        // A tiny list claiming 2^31 END elements, which used to make the scan spin
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TagType.COMPOUND.getId());
+        out.writeUTF("");
+        out.writeByte(TagType.LIST.getId());
+        out.writeUTF("");
+        out.writeByte(TagType.END.getId());
+        out.writeInt(Integer.MAX_VALUE);
+        Files.write(directory.resolve("endless.dat"), bytes.toByteArray());
+
+        NBTQuery query = new NBTQuery().where(value -> true, "Level", "xPos").select("Name");
+
+        List<Path> failed = new ArrayList<>();
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (Stream<NBTQuery.Result> results = query.onError((file, e) -> failed.add(file)).scan(directory)) {
+                assertEquals(1, results.count());
+            }
+        });
+        assertEquals(Set.of(directory.resolve("truncated.dat"), directory.resolve("endless.dat")), Set.copyOf(failed));
+
+        assertThrows(UncheckedIOException.class, () -> {
+            try (Stream<NBTQuery.Result> results = new NBTQuery().select("Name").scan(directory)) {
+                results.count();
+            }
+        });
+    }
+
+    @Test
+    void releasesThreadsOfUnclosedScans() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            Files.write(directory.resolve(i + ".dat"), encode(chunk(i, "chunk" + i)));
+        }
+
+        NBTQuery query = new NBTQuery().select("Name").parallelism(2);
+        for (int i = 0; i < 5; i++) {
+            // Short-circuited, and never closed
+            assertTrue(query.scan(directory).findFirst().isPresent());
+        }
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            while (Thread.getAllStackTraces().keySet().stream()
+                    .anyMatch(thread -> thread.getName().equals("NBTQuery scanner"))) {
+                Thread.sleep(100);
+            }
+        });
+    }
+
+    private static NBTCompound chunk(int x, String name) {
+        NBTCompound compound = new NBTCompound();
+        compound.set(x, "Level", "xPos");
+        compound.set(x, "Level", "zPos");
+        NBTList entities = new NBTList(TagType.COMPOUND);
+        entities.add(new NBTCompound());
+        compound.set(entities, "Level", "Entities");
+        compound.set(name, "Name");
+        compound.set(new long[256], "Level", "Heightmap");
+        return compound;
+    }
+
+    private static byte[] encode(NBTCompound compound) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTWriter writer = new NBTWriter(out);
+        writer.write(compound);
+        writer.finish();
+        return out.toByteArray();
+    }
+
+}
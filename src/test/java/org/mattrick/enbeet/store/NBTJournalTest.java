@@ -0,0 +1,175 @@
+package org.mattrick.enbeet.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mattrick.enbeet.NBTCompound;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysRecordsAfterReopening() throws IOException {
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            journal.set(20, "Health");
+            journal.set(new int[] {1, 2, 3}, "Inventory", "slots");
+            journal.set("gone", "Temporary");
+            journal.remove("Temporary");
+        }
+
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            NBTCompound compound = journal.get();
+            assertEquals(Optional.of(20), compound.getInt("Health"));
+            assertArrayEquals(new int[] {1, 2, 3}, compound.getIntArray("Inventory", "slots").orElseThrow());
+            assertTrue(compound.get("Temporary").isEmpty());
+        }
+    }
+
+    @Test
+    void dropsTornRecordAndKeepsAppending() throws IOException {
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            journal.set(1, "first");
+            journal.sync();
+            journal.set(2, "second");
+        }
+
+        // Tear the last record, as a crash in the middle of writing it would
+        Path log = onlyLog();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            assertEquals(Optional.of(1), journal.get().getInt("first"));
+            assertTrue(journal.get().get("second").isEmpty());
+            journal.set(3, "third");
+        }
+
+        // The torn tail was cut off, so records appended after it are read again
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            assertEquals(Optional.of(1), journal.get().getInt("first"));
+            assertEquals(Optional.of(3), journal.get().getInt("third"));
+        }
+    }
+
+    @Test
+    void stopsReplayAtCorruptRecord() throws IOException {
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            journal.set(1, "first");
+            journal.sync();
+            journal.set(2, "second");
+        }
+
+        // Flip a byte in the payload of the last record, so its checksum no longer matches
+        Path log = onlyLog();
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[bytes.length - 6] ^= 0xff;
+        Files.write(log, bytes);
+
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            assertEquals(Optional.of(1), journal.get().getInt("first"));
+            assertTrue(journal.get().get("second").isEmpty());
+        }
+    }
+
+    @Test
+    void compactionKeepsConcurrentWrites() throws Exception {
+        int threads = 4;
+        int writes = 500;
+
+        // A tiny journal size makes background compactions race with the writers all the time
+        try (NBTJournal journal = new NBTJournal(directory, 512)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                String key = "thread" + thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < writes; i++) {
+                        journal.set(i, key, "count");
+                        if (i % 50 == 0) {
+                            journal.compact();
+                        }
+                    }
+                    journal.sync();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            for (int thread = 0; thread < threads; thread++) {
+                assertEquals(Optional.of(writes - 1), journal.get().getInt("thread" + thread, "count"));
+            }
+        }
+        assertTrue(Files.exists(directory.resolve("snapshot.nbt")));
+    }
+
+    @Test
+    void compactionRotatesToANewJournal() throws IOException {
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            journal.set(1, "before");
+            Path before = onlyLog();
+            journal.compact();
+            journal.set(2, "after");
+            journal.sync();
+
+            // The old journal is in the snapshot, and later records only go to the new one
+            Path after = onlyLog();
+            assertNotEquals(before, after);
+            assertTrue(Files.size(after) > 0);
+        }
+
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            assertEquals(Optional.of(1), journal.get().getInt("before"));
+            assertEquals(Optional.of(2), journal.get().getInt("after"));
+        }
+    }
+
+    @Test
+    void clonesAreIsolatedFromTheJournal() throws IOException {
+        try (NBTJournal journal = new NBTJournal(directory)) {
+            journal.set(new int[] {1, 2, 3}, "data", "array");
+
+            NBTCompound clone = journal.get();
+            clone.getIntArray("data", "array").orElseThrow()[0] = 42;
+            clone.set(5, "data", "added");
+            journal.set(7, "data", "later");
+
+            assertArrayEquals(new int[] {1, 2, 3}, journal.get().getIntArray("data", "array").orElseThrow());
+            assertTrue(journal.get().get("data", "added").isEmpty());
+            assertTrue(clone.get("data", "later").isEmpty());
+        }
+    }
+
+    private Path onlyLog() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> logs = files.filter(file -> file.getFileName().toString().endsWith(".log")).toList();
+            assertEquals(1, logs.size());
+            return logs.get(0);
+        }
+    }
+
+}
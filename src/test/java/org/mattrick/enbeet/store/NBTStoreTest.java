@@ -0,0 +1,196 @@
+package org.mattrick.enbeet.store;
+
+import org.junit.jupiter.api.Test;
+import org.mattrick.enbeet.NBTCompound;
+import org.mattrick.enbeet.io.NBTReader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTStoreTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Test
+    void evictsLeastRecentlyUsedFirst() throws IOException {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        NBTStore<Integer> store = new NBTStore<>(3 * capacity(), (key, encoded) -> written.add(key));
+
+        store.put(0, value(0));
+        store.put(1, value(1));
+        store.putClean(2, value(2));
+        store.get(0);
+        store.put(3, value(3));
+        store.put(4, value(4));
+
+        // 1 and then 2 were the least recently used, and only 1 was modified
+        assertEquals(List.of(1), written);
+        assertTrue(store.contains(0));
+        assertFalse(store.contains(1));
+        assertFalse(store.contains(2));
+        assertEquals(2, store.getEvictions());
+
+        // Flushing writes back the rest, from the least to the most recently used
+        store.flush();
+        assertEquals(List.of(1, 0, 3, 4), written);
+    }
+
+    @Test
+    void servesEntriesWhileTheyAreWrittenBack() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<Integer, Integer> written = new ConcurrentHashMap<>();
+        NBTStore<Integer> store = new NBTStore<>(2 * capacity(), (key, encoded) -> {
+            if (key == 0) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            written.put(key, decode(encoded));
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            store.put(0, value(0));
+            store.put(1, value(1));
+            // Evicts 0, and blocks in its write-back
+            Future<?> evicting = executor.submit(() -> {
+                store.put(2, value(2));
+                return null;
+            });
+            writing.await();
+
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                // The store is not locked, and the entry being written back is still served
+                assertTrue(store.contains(0));
+                assertEquals(Optional.of(0), store.get(0).flatMap(nbt -> nbt.getInt("value")));
+
+                // Replacing it while the old value is being written back keeps the new value
+                store.put(0, value(100));
+                assertEquals(Optional.of(100), store.get(0).flatMap(nbt -> nbt.getInt("value")));
+            });
+
+            release.countDown();
+            evicting.get();
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+
+        assertEquals(Optional.of(100), store.get(0).flatMap(nbt -> nbt.getInt("value")));
+        assertEquals(0, (int) written.get(0));
+
+        store.flush();
+        assertEquals(100, (int) written.get(0));
+    }
+
+    @Test
+    void keepsEntriesThatFailedToBeWrittenBack() throws IOException {
+        NBTStore<Integer> store = new NBTStore<>(capacity(), (key, encoded) -> {
+            throw new IOException("unavailable");
+        });
+
+        store.put(0, value(0));
+        assertThrows(IOException.class, () -> store.put(1, value(1)));
+
+        assertEquals(Optional.of(0), store.get(0).flatMap(nbt -> nbt.getInt("value")));
+        assertEquals(Optional.of(1), store.get(1).flatMap(nbt -> nbt.getInt("value")));
+        assertThrows(IOException.class, store::flush);
+    }
+
+    @Test
+    void neverRecyclesBuffersThatAreStillInUse() throws Exception {
+        int threads = 4;
+        int iterations = 2000;
+        AtomicBoolean torn = new AtomicBoolean();
+        // Small enough that buffers are recycled all the time, while other threads decode or write them back
+        NBTStore<Integer> store = new NBTStore<>(2 * capacity(), (key, encoded) -> {
+            ByteBuffer before = ByteBuffer.allocate(encoded.remaining()).put(encoded.duplicate());
+            Thread.yield();
+            if (!before.flip().equals(encoded) || !consistent(new NBTReader(new ByteBufferInputStream(encoded)).read())) {
+                torn.set(true);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < iterations; i++) {
+                        int key = random.nextInt(4);
+                        store.put(key, value(random.nextInt(1000)));
+                        Optional<NBTCompound> read = store.get(random.nextInt(4));
+                        if (read.isPresent() && !consistent(read.get())) {
+                            torn.set(true);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        assertFalse(torn.get());
+        assertTrue(store.getSizeBytes() <= store.getMaxBytes());
+    }
+
+    private static NBTCompound value(int value) {
+        NBTCompound compound = new NBTCompound();
+        compound.set(value, "value");
+        int[] payload = new int[200];
+        Arrays.fill(payload, value);
+        compound.set(payload, "payload");
+        return compound;
+    }
+
+    private static boolean consistent(NBTCompound compound) {
+        int value = compound.getInt("value").orElseThrow();
+        return Arrays.stream(compound.getIntArray("payload").orElseThrow()).allMatch(element -> element == value);
+    }
+
+    private static int decode(ByteBuffer encoded) throws IOException {
+        return new NBTReader(new ByteBufferInputStream(encoded)).read().getInt("value").orElseThrow();
+    }
+
+    /**
+     * Get the off-heap size of a single entry.
+     */
+    private static long capacity() throws IOException {
+        NBTStore<Integer> store = new NBTStore<>(1 << 20);
+        store.put(0, value(0));
+        return store.getSizeBytes();
+    }
+
+}